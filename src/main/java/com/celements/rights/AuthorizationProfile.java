@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * The authorization checks of a single request. Instances are bound to the execution
+ * context of the request and therefore only used by one thread.
+ */
+public class AuthorizationProfile {
+
+  private final List<Check> checks = new ArrayList<Check>();
+  private final Deque<Check> runningChecks = new ArrayDeque<Check>();
+
+  Check startCheck(Right right, EntityReference entityRef) {
+    Check check = new Check(right, entityRef, runningChecks.size());
+    checks.add(check);
+    runningChecks.push(check);
+    return check;
+  }
+
+  void endCheck(Check check) {
+    check.elapsedNanos = System.nanoTime() - check.startNanos;
+    runningChecks.remove(check);
+  }
+
+  /**
+   * @return the innermost check running, null if none
+   */
+  Check getRunningCheck() {
+    return runningChecks.peek();
+  }
+
+  public List<Check> getChecks() {
+    return Collections.unmodifiableList(checks);
+  }
+
+  public int getCheckCount() {
+    return checks.size();
+  }
+
+  public int getCacheHitCount() {
+    int count = 0;
+    for (Check check : checks) {
+      if (check.isCacheHit()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public long getElapsedNanos() {
+    long nanos = 0;
+    for (Check check : checks) {
+      if (check.getDepth() == 0) {
+        nanos += check.getElapsedNanos();
+      }
+    }
+    return nanos;
+  }
+
+  @Override
+  public String toString() {
+    return "AuthorizationProfile [checks=" + getCheckCount() + ", cacheHits=" 
+        + getCacheHitCount() + ", elapsedNanos=" + getElapsedNanos() + "]";
+  }
+
+  public static class Check {
+
+    private final Right right;
+    private final EntityReference entityRef;
+    private final int depth;
+    private final long startNanos;
+    private Boolean granted;
+    private boolean cacheHit;
+    private boolean invalidated;
+    private boolean settled;
+    private int docLoads;
+    private int preferenceLookups;
+    private long elapsedNanos;
+
+    Check(Right right, EntityReference entityRef, int depth) {
+      this.right = right;
+      this.entityRef = entityRef;
+      this.depth = depth;
+      this.startNanos = System.nanoTime();
+    }
+
+    public Right getRight() {
+      return right;
+    }
+
+    public EntityReference getEntityReference() {
+      return entityRef;
+    }
+
+    /**
+     * @return the number of checks this one is nested in, e.g. checks done while loading
+     *         documents for another check
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return the check result, null if the check failed with an exception
+     */
+    public Boolean getGranted() {
+      return granted;
+    }
+
+    void setGranted(boolean granted) {
+      this.granted = granted;
+    }
+
+    public boolean isCacheHit() {
+      return cacheHit;
+    }
+
+    void setCacheHit() {
+      this.cacheHit = true;
+    }
+
+    public boolean isInvalidated() {
+      return invalidated;
+    }
+
+    void setInvalidated() {
+      this.invalidated = true;
+    }
+
+    public boolean isSettled() {
+      return settled;
+    }
+
+    void setSettled() {
+      this.settled = true;
+    }
+
+    public int getDocLoads() {
+      return docLoads;
+    }
+
+    void incDocLoads() {
+      docLoads++;
+    }
+
+    public int getPreferenceLookups() {
+      return preferenceLookups;
+    }
+
+    void incPreferenceLookups() {
+      preferenceLookups++;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Check [right=" + right + ", entity=" + entityRef + ", granted=" + granted 
+          + ", cacheHit=" + cacheHit + ", invalidated=" + invalidated + ", settled=" 
+          + settled + ", docLoads=" + docLoads + ", preferenceLookups=" 
+          + preferenceLookups + ", elapsedNanos=" + elapsedNanos + "]";
+    }
+  }
+}
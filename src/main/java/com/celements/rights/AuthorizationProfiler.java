@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+
+import com.celements.rights.AuthorizationProfile.Check;
+
+/**
+ * Records the authorization checks of the current request once profiling has been
+ * started for it. Without a started profile all recording methods are no-ops.
+ */
+@Component
+@Singleton
+public class AuthorizationProfiler implements IAuthorizationProfilerRole {
+
+  static final String EXEC_CONTEXT_KEY = "celements.rights.authorizationProfile";
+
+  @Inject
+  Execution execution;
+
+  @Override
+  public AuthorizationProfile start() {
+    AuthorizationProfile profile = new AuthorizationProfile();
+    ExecutionContext execContext = execution.getContext();
+    if (execContext != null) {
+      execContext.setProperty(EXEC_CONTEXT_KEY, profile);
+    }
+    return profile;
+  }
+
+  @Override
+  public AuthorizationProfile getProfile() {
+    ExecutionContext execContext = execution.getContext();
+    if (execContext != null) {
+      Object profile = execContext.getProperty(EXEC_CONTEXT_KEY);
+      if (profile instanceof AuthorizationProfile) {
+        return (AuthorizationProfile) profile;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Check startCheck(Right right, EntityReference entityRef) {
+    AuthorizationProfile profile = getProfile();
+    if (profile != null) {
+      return profile.startCheck(right, entityRef);
+    }
+    return null;
+  }
+
+  @Override
+  public void endCheck(Check check, Boolean granted) {
+    AuthorizationProfile profile = getProfile();
+    if ((profile != null) && (check != null)) {
+      if (granted != null) {
+        check.setGranted(granted);
+      }
+      profile.endCheck(check);
+    }
+  }
+
+  @Override
+  public void markCacheHit() {
+    Check check = getRunningCheck();
+    if (check != null) {
+      check.setCacheHit();
+    }
+  }
+
+  @Override
+  public void markInvalidated() {
+    Check check = getRunningCheck();
+    if (check != null) {
+      check.setInvalidated();
+    }
+  }
+
+  @Override
+  public void markSettled() {
+    Check check = getRunningCheck();
+    if (check != null) {
+      check.setSettled();
+    }
+  }
+
+  @Override
+  public void countDocLoad() {
+    Check check = getRunningCheck();
+    if (check != null) {
+      check.incDocLoads();
+    }
+  }
+
+  @Override
+  public void countPreferenceLookup() {
+    Check check = getRunningCheck();
+    if (check != null) {
+      check.incPreferenceLookups();
+    }
+  }
+
+  private Check getRunningCheck() {
+    AuthorizationProfile profile = getProfile();
+    if (profile != null) {
+      return profile.getRunningCheck();
+    }
+    return null;
+  }
+}
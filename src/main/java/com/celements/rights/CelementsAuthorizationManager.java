@@ -1,11 +1,15 @@
 package com.celements.rights;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.security.SecurityReference;
@@ -21,6 +25,10 @@ import org.xwiki.security.authorization.SecurityRuleEntry;
 import org.xwiki.security.authorization.UnableToRegisterRightException;
 import org.xwiki.security.authorization.cache.SecurityCache;
 import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl.SettledEntryState;
+
+import com.celements.rights.AuthorizationProfile.Check;
+import com.celements.rights.publication.PublicationInvalidationChannel;
 
 @Component
 @Singleton 
@@ -41,47 +49,120 @@ public class CelementsAuthorizationManager extends DefaultAuthorizationManager {
   @Inject
   @Named("celpublication")
   private AuthorizationSettler celSettler;
+
+  @Inject
+  private IAuthorizationProfilerRole profiler;
+
+  @Inject
+  private IShadowAccessEvaluatorRole shadowEvaluator;
+
+  @Inject
+  private PublicationInvalidationChannel invalidationChannel;
   
   @Override
   public void checkAccess(Right right, DocumentReference userReference,
       EntityReference entityReference) throws AccessDeniedException {
-    invalidateCacheIfNecessary(userReference, entityReference);
-    super.checkAccess(right, userReference, entityReference);
+    Check check = profiler.startCheck(right, entityReference);
+    Boolean granted = null;
+    try {
+      invalidateCacheIfNecessary(userReference, entityReference);
+      super.checkAccess(right, userReference, entityReference);
+      granted = true;
+    } catch (AccessDeniedException exc) {
+      granted = false;
+      throw exc;
+    } finally {
+      profiler.endCheck(check, granted);
+      if (granted != null) {
+        shadowEvaluator.sample(right, userReference, entityReference, granted);
+      }
+    }
   }
 
   @Override
   public boolean hasAccess(Right right, DocumentReference userReference,
       EntityReference entityReference) {
-    invalidateCacheIfNecessary(userReference, entityReference);
-    return super.hasAccess(right, userReference, entityReference);
+    Check check = profiler.startCheck(right, entityReference);
+    Boolean granted = null;
+    try {
+      invalidateCacheIfNecessary(userReference, entityReference);
+      granted = super.hasAccess(right, userReference, entityReference);
+      return granted;
+    } finally {
+      profiler.endCheck(check, granted);
+      if (granted != null) {
+        shadowEvaluator.sample(right, userReference, entityReference, granted);
+      }
+    }
   }
   
   public void invalidateCacheIfNecessary(DocumentReference userReference, 
       EntityReference entityRef) {
     UserSecurityReference user = securityReferenceFactorySub.newUserReference(userReference);
     SecurityReference entity = securityReferenceFactorySub.newEntityReference(entityRef);
+    SecurityRuleEntry entityEntry = securityCacheSub.get(entity);
+    SecurityReference ref;
+    if (entityEntry != null) {
+      ref = getAccessHolderReference(entity);
+    } else {
+      //an evicted document may still share an access entry settled on a parent level
+      ref = getAccessHolderReference(entity.getParentSecurityReference());
+    }
+    SecurityAccessEntry accessEntry = (ref != null) ? securityCacheSub.get(user, ref) 
+        : null;
+    if (accessEntry != null) {
+      SettledEntryState state = SettledEntryState.VALID;
+      if(getCelAuthSettler().isPublishActive()) {
+        //access entries of documents without own rights are shared on space or wiki
+        //level, hence they are only reused for the document they have been settled for
+        //and until its next publication transition.
+        state = getCelAuthSettler().checkSettledEntry(user, ref, entityEntry, 
+            accessEntry);
+      }
+      if (state != SettledEntryState.VALID) {
+        securityCacheSub.remove(user, ref);
+        profiler.markInvalidated();
+        loggerSub.debug("Invalidated authorization cache");
+        if ((state == SettledEntryState.TRANSITIONED) 
+            && (entityRef.getType() == EntityType.DOCUMENT)) {
+          invalidationChannel.publish(Collections.singletonList(new DocumentReference(
+              entityRef)));
+        }
+      } else {
+        profiler.markCacheHit();
+        loggerSub.debug("Authorization cache still valid.");
+      }
+    }
+  }
+
+  /**
+   * Evicts the given documents from the security cache, e.g. on a message of the
+   * publication invalidation channel. Access entries shared on space or wiki level stay
+   * cached, but are not reused for the evicted documents anymore, since their settled
+   * state refers to the replaced rule entry of the document.
+   */
+  public void invalidatePublication(Collection<DocumentReference> docRefs) {
+    for (DocumentReference docRef : docRefs) {
+      securityCacheSub.remove(securityReferenceFactorySub.newEntityReference(docRef));
+    }
+    loggerSub.debug("Invalidated authorization cache for " + docRefs.size() 
+        + " documents");
+  }
+
+  /**
+   * @return the reference on which the access entries for the given entity are cached,
+   *         null if the rules are not cached at all.
+   */
+  SecurityReference getAccessHolderReference(SecurityReference entity) {
     for (SecurityReference ref = entity; ref != null; ref = ref.getParentSecurityReference()) {
       SecurityRuleEntry entry = securityCacheSub.get(ref);
       if (entry == null) {
-        break;
+        return null;
       } else if (!entry.isEmpty() || ref.getParentSecurityReference() == null) {
-        SecurityAccessEntry accessEntry = securityCacheSub.get(user, ref);
-        if (accessEntry == null) {
-          break;
-        } else {
-          if(getCelAuthSettler().isPublishActive()) {
-            //XXX dirty - performance improvement: invalidate cache only if publish or
-            //            unpublish date lies between now and the date the cache entry
-            //            was created.
-            securityCacheSub.remove(user, ref);
-            loggerSub.debug("Invalidated authorization cache");
-          } else {
-            loggerSub.debug("Authorization cache still valid.");
-          }
-          break;
-        }
-      } 
+        return ref;
+      }
     }
+    return null;
   }
 
   @Override
@@ -19,6 +19,13 @@
  */
 package com.celements.rights;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -31,6 +38,7 @@ import org.xwiki.script.service.ScriptService;
 import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
 import org.xwiki.security.authorization.internal.CelementsRightServiceImpl.PubUnpub;
 
+import com.celements.rights.publication.IPublicationServiceRole;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.user.api.XWikiRightService;
@@ -49,6 +57,15 @@ public class CelementsRightScriptService implements ScriptService {
   @Named("local")
   EntityReferenceSerializer<String> serializer_local;
 
+  @Inject
+  IPublicationServiceRole publicationService;
+
+  @Inject
+  IAuthorizationProfilerRole authProfiler;
+
+  @Inject
+  IShadowAccessEvaluatorRole shadowEvaluator;
+
   public boolean publicationActivated(DocumentReference forDoc) {
     XWikiRightService rightService = getContext().getWiki().getRightService();
     if(rightService instanceof CelementsRightServiceImpl) {
@@ -88,6 +105,88 @@ public class CelementsRightScriptService implements ScriptService {
     }
   }
 
+  /**
+   * Sets the publication window of all given documents the current user may edit and
+   * invalidates their cached rights once for the whole batch.
+   *
+   * @return the documents which have actually been changed
+   */
+  public Collection<DocumentReference> setPublicationWindows(
+      List<DocumentReference> docRefs, Date publishDate, Date unpublishDate) {
+    if (docRefs == null) {
+      return Collections.emptyList();
+    }
+    List<DocumentReference> editableDocRefs = new ArrayList<DocumentReference>();
+    for (DocumentReference docRef : docRefs) {
+      if (hasEditRight(docRef)) {
+        editableDocRefs.add(docRef);
+      } else {
+        logger.info("setPublicationWindows: skipping [" + docRef + "], no edit rights " 
+            + "for user [" + getContext().getUser() + "]");
+      }
+    }
+    return publicationService.setPublicationWindows(editableDocRefs, publishDate, 
+        unpublishDate);
+  }
+
+  /**
+   * Starts recording all authorization checks of the current request. Requires admin
+   * rights.
+   *
+   * @return true if profiling has been started
+   */
+  public boolean startAuthorizationProfile() {
+    if (hasAdminRights()) {
+      authProfiler.start();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the authorization checks recorded for the current request, null if
+   *         profiling has not been started or admin rights are missing
+   */
+  public AuthorizationProfile getAuthorizationProfile() {
+    if (hasAdminRights()) {
+      return authProfiler.getProfile();
+    }
+    return null;
+  }
+
+  /**
+   * @return the counters of the shadow evaluation (sampled, compared, divergences,
+   *         dropped, failed), null if admin rights are missing
+   */
+  public Map<String, Long> getShadowEvaluationStatistics() {
+    if (hasAdminRights()) {
+      return shadowEvaluator.getStatistics();
+    }
+    return null;
+  }
+
+  boolean hasAdminRights() {
+    return getContext().getWiki().getRightService().hasAdminRights(getContext());
+  }
+
+  /**
+   * Rights are checked with the local document name, thus documents of other wikis are
+   * never editable here.
+   */
+  boolean hasEditRight(DocumentReference docRef) {
+    if (!getContext().getDatabase().equals(docRef.getWikiReference().getName())) {
+      return false;
+    }
+    try {
+      return getContext().getWiki().getRightService().hasAccessLevel("edit", 
+          getContext().getUser(), serializer_local.serialize(docRef), getContext());
+    } catch (XWikiException xwe) {
+      logger.error("hasEditRight: Exception while checking edit rights for docRef=" 
+          + docRef, xwe);
+      return false;
+    }
+  }
+
   private XWikiContext getContext() {
     return (XWikiContext)execution.getContext().getProperty("xwikicontext");
   }
@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+
+import com.celements.rights.AuthorizationProfile.Check;
+
+@Role
+public interface IAuthorizationProfilerRole {
+
+  /**
+   * Starts profiling the authorization checks of the current request.
+   */
+  public AuthorizationProfile start();
+
+  /**
+   * @return the profile of the current request, null if profiling is not started
+   */
+  public AuthorizationProfile getProfile();
+
+  /**
+   * @return the started check, null if profiling is not started
+   */
+  public Check startCheck(Right right, EntityReference entityRef);
+
+  /**
+   * @param granted the decision of the check, null if it failed without one
+   */
+  public void endCheck(Check check, Boolean granted);
+
+  public void markCacheHit();
+
+  public void markInvalidated();
+
+  public void markSettled();
+
+  public void countDocLoad();
+
+  public void countPreferenceLookup();
+
+}
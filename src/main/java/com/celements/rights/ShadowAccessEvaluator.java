@@ -0,0 +1,295 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.GroupSecurityReference;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.AuthorizationException;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.security.authorization.RuleState;
+import org.xwiki.security.authorization.SecurityAccessEntry;
+import org.xwiki.security.authorization.SecurityEntryReader;
+import org.xwiki.security.authorization.SecurityRuleEntry;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Validates cached access decisions against the uncached path. For a sample of the
+ * checks, configured by the xwiki.cfg parameter 'celements.rights.shadow.sampleRate'
+ * (0 to 1, default 0), the decision is computed again on a background thread with
+ * freshly read rules and groups, a fresh settlement and a publication document loaded
+ * from the store. Divergences are counted and logged. Since the shadow decision is
+ * computed slightly later, checks close to a publication transition may diverge
+ * legitimately.
+ */
+@Component
+@Singleton
+public class ShadowAccessEvaluator implements IShadowAccessEvaluatorRole, Disposable {
+
+  static final String SAMPLE_RATE_PARAM = "celements.rights.shadow.sampleRate";
+  static final int QUEUE_SIZE = 1000;
+  static final List<Right> SHADOWED_RIGHTS = Arrays.asList(Right.VIEW, Right.EDIT, 
+      Right.COMMENT);
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  Execution execution;
+
+  @Inject
+  SecurityReferenceFactory securityReferenceFactory;
+
+  @Inject
+  SecurityEntryReader securityEntryReader;
+
+  @Inject
+  @Named("celpublication")
+  AuthorizationSettler celSettler;
+
+  private final AtomicLong sampled = new AtomicLong();
+  private final AtomicLong compared = new AtomicLong();
+  private final AtomicLong divergences = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile Double sampleRate;
+  private volatile ExecutorService executor;
+
+  @Override
+  public void sample(Right right, DocumentReference userRef, EntityReference entityRef, 
+      boolean cachedDecision) {
+    XWikiContext context = getContext();
+    if ((context != null) && (entityRef != null) 
+        && (entityRef.getType() == EntityType.DOCUMENT) 
+        && SHADOWED_RIGHTS.contains(right) && !isShadowEvaluation() 
+        && (Math.random() < getSampleRate())) {
+      sampled.incrementAndGet();
+      try {
+        getExecutor().execute(new ShadowRunnable(right, userRef, entityRef, 
+            cachedDecision, newTaskContext(context)));
+      } catch (RejectedExecutionException ree) {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  boolean isShadowEvaluation() {
+    ExecutionContext execContext = execution.getContext();
+    return (execContext != null) && Boolean.TRUE.equals(execContext.getProperty(
+        CelementsRightServiceImpl.SHADOW_EXEC_CONTEXT_KEY));
+  }
+
+  void evaluate(Right right, DocumentReference userRef, EntityReference entityRef, 
+      boolean cachedDecision) throws AuthorizationException, XWikiException {
+    UserSecurityReference user = securityReferenceFactory.newUserReference(userRef);
+    SecurityReference entity = securityReferenceFactory.newEntityReference(entityRef);
+    Deque<SecurityRuleEntry> ruleEntries = new ArrayDeque<SecurityRuleEntry>();
+    for (SecurityReference ref = entity; ref != null; ref = ref.getParentSecurityReference()) {
+      ruleEntries.add(securityEntryReader.read(ref));
+    }
+    SecurityAccessEntry entry = celSettler.settle(user, getAllGroups(userRef), 
+        ruleEntries);
+    boolean freshDecision = (entry.getAccess().get(right) == RuleState.ALLOW);
+    compared.incrementAndGet();
+    if (freshDecision != cachedDecision) {
+      divergences.incrementAndGet();
+      logger.warn("Shadow evaluation diverges for right [" + right + "], user [" + userRef 
+          + "], entity [" + entityRef + "]: cached [" + cachedDecision + "], fresh [" 
+          + freshDecision + "]");
+    } else {
+      logger.debug("Shadow evaluation matches for right [" + right + "], user [" + userRef 
+          + "], entity [" + entityRef + "]");
+    }
+  }
+
+  Collection<GroupSecurityReference> getAllGroups(DocumentReference userRef
+      ) throws XWikiException {
+    Set<DocumentReference> groupRefs = new HashSet<DocumentReference>();
+    if (userRef != null) {
+      Deque<DocumentReference> toResolve = new ArrayDeque<DocumentReference>();
+      toResolve.add(userRef);
+      while (!toResolve.isEmpty()) {
+        for (DocumentReference groupRef : getContext().getWiki().getGroupService(
+            getContext()).getAllGroupsReferencesForMember(toResolve.poll(), 0, 0, 
+            getContext())) {
+          if (groupRefs.add(groupRef)) {
+            toResolve.add(groupRef);
+          }
+        }
+      }
+    }
+    List<GroupSecurityReference> groups = new ArrayList<GroupSecurityReference>();
+    for (DocumentReference groupRef : groupRefs) {
+      groups.add(securityReferenceFactory.newGroupReference(groupRef));
+    }
+    return groups;
+  }
+
+  @Override
+  public Map<String, Long> getStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("sampled", sampled.get());
+    stats.put("compared", compared.get());
+    stats.put("divergences", divergences.get());
+    stats.put("dropped", dropped.get());
+    stats.put("failed", failed.get());
+    return stats;
+  }
+
+  double getSampleRate() {
+    if (sampleRate == null) {
+      if (getContext() == null) {
+        return 0;
+      }
+      double rate = 0;
+      try {
+        rate = Double.parseDouble(getContext().getWiki().Param(SAMPLE_RATE_PARAM, "0"));
+      } catch (NumberFormatException nfe) {
+        logger.warn("Invalid " + SAMPLE_RATE_PARAM + ", shadow evaluation disabled", nfe);
+      }
+      sampleRate = rate;
+    }
+    return sampleRate;
+  }
+
+  /**
+   * The shadow evaluation runs after the request may have finished, hence it gets a new
+   * context with only the wiki, database and user of the request.
+   */
+  XWikiContext newTaskContext(XWikiContext context) {
+    XWikiContext taskContext = new XWikiContext();
+    taskContext.setWiki(context.getWiki());
+    taskContext.setMainXWiki(context.getMainXWiki());
+    taskContext.setOriginalDatabase(context.getOriginalDatabase());
+    taskContext.setDatabase(context.getDatabase());
+    taskContext.setUserReference(context.getUserReference());
+    return taskContext;
+  }
+
+  private ExecutorService getExecutor() {
+    if (executor == null) {
+      synchronized (this) {
+        if (executor == null) {
+          executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, 
+              new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "ShadowAccessEvaluator");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+        }
+      }
+    }
+    return executor;
+  }
+
+  @Override
+  public void dispose() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private XWikiContext getContext() {
+    ExecutionContext execContext = execution.getContext();
+    if (execContext != null) {
+      return (XWikiContext) execContext.getProperty("xwikicontext");
+    }
+    return null;
+  }
+
+  private class ShadowRunnable implements Runnable {
+
+    private final Right right;
+    private final DocumentReference userRef;
+    private final EntityReference entityRef;
+    private final boolean cachedDecision;
+    private final XWikiContext context;
+
+    ShadowRunnable(Right right, DocumentReference userRef, EntityReference entityRef, 
+        boolean cachedDecision, XWikiContext context) {
+      this.right = right;
+      this.userRef = userRef;
+      this.entityRef = entityRef;
+      this.cachedDecision = cachedDecision;
+      this.context = context;
+    }
+
+    @Override
+    public void run() {
+      ExecutionContext execContext = new ExecutionContext();
+      execContext.setProperty("xwikicontext", context);
+      execContext.setProperty(CelementsRightServiceImpl.SHADOW_EXEC_CONTEXT_KEY, true);
+      execution.setContext(execContext);
+      try {
+        evaluate(right, userRef, entityRef, cachedDecision);
+      } catch (AuthorizationException authExc) {
+        failed.incrementAndGet();
+        logger.info("Shadow evaluation failed for [" + entityRef + "]", authExc);
+      } catch (XWikiException xwe) {
+        failed.incrementAndGet();
+        logger.info("Shadow evaluation failed for [" + entityRef + "]", xwe);
+      } catch (RuntimeException exc) {
+        failed.incrementAndGet();
+        logger.warn("Shadow evaluation failed for [" + entityRef + "]", exc);
+      } finally {
+        execution.removeContext();
+      }
+    }
+  }
+}
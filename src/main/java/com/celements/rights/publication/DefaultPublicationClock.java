@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * System clock with the granularity configured by the xwiki.cfg parameter
+ * 'celements.publication.clock.granularity' in milliseconds (default 1000). Publication
+ * transitions may take effect up to one granularity late.
+ */
+@Component
+@Singleton
+public class DefaultPublicationClock implements PublicationClock {
+
+  static final String GRANULARITY_PARAM = "celements.publication.clock.granularity";
+  static final long DEFAULT_GRANULARITY = 1000;
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  Execution execution;
+
+  private volatile Long granularity;
+
+  @Override
+  public Date getNow() {
+    return new Date(getBucketStart(System.currentTimeMillis(), getGranularity()));
+  }
+
+  static long getBucketStart(long millis, long granularity) {
+    if (granularity > 1) {
+      return millis - (millis % granularity);
+    }
+    return millis;
+  }
+
+  @Override
+  public long getGranularity() {
+    if (granularity == null) {
+      XWikiContext context = getContext();
+      if (context == null) {
+        return DEFAULT_GRANULARITY;
+      }
+      long value = context.getWiki().ParamAsLong(GRANULARITY_PARAM, DEFAULT_GRANULARITY);
+      if (value < 0) {
+        logger.warn("Invalid " + GRANULARITY_PARAM + " [" + value + "], using default");
+        value = DEFAULT_GRANULARITY;
+      }
+      granularity = value;
+    }
+    return granularity;
+  }
+
+  private XWikiContext getContext() {
+    ExecutionContext execContext = execution.getContext();
+    if (execContext != null) {
+      return (XWikiContext) execContext.getProperty("xwikicontext");
+    }
+    return null;
+  }
+}
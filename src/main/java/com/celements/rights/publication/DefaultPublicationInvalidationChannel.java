@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+@Component
+@Singleton
+public class DefaultPublicationInvalidationChannel implements 
+    PublicationInvalidationChannel {
+
+  static final String CHANNEL_PARAM = "celements.publication.invalidation.channel";
+  static final String DEFAULT_CHANNEL = "inmemory";
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  Execution execution;
+
+  @Inject
+  ComponentManager componentManager;
+
+  private volatile PublicationInvalidationChannel channel;
+
+  @Override
+  public void publish(Collection<DocumentReference> docRefs) {
+    if (!docRefs.isEmpty()) {
+      getChannel().publish(docRefs);
+    }
+  }
+
+  PublicationInvalidationChannel getChannel() {
+    if (channel == null) {
+      String hint = getContext().getWiki().Param(CHANNEL_PARAM, DEFAULT_CHANNEL);
+      try {
+        channel = componentManager.getInstance(PublicationInvalidationChannel.class, 
+            hint);
+      } catch (ComponentLookupException exc) {
+        logger.error("Unknown " + CHANNEL_PARAM + " [" + hint + "], using [" 
+            + DEFAULT_CHANNEL + "]", exc);
+        try {
+          channel = componentManager.getInstance(PublicationInvalidationChannel.class, 
+              DEFAULT_CHANNEL);
+        } catch (ComponentLookupException exc2) {
+          throw new IllegalStateException("Missing default invalidation channel", exc2);
+        }
+      }
+    }
+    return channel;
+  }
+
+  private XWikiContext getContext() {
+    return (XWikiContext)execution.getContext().getProperty("xwikicontext");
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+@Role
+public interface IPublicationServiceRole {
+
+  /**
+   * Sets the publication window of all given documents in one batch. Documents already
+   * having the requested window are not saved again, not existing documents are
+   * skipped. All changed documents are published at once on the
+   * {@link PublicationInvalidationChannel} after the whole batch has been saved, or
+   * aborted.
+   *
+   * @param docRefs the documents to schedule
+   * @param publishDate start of the window, null for no start
+   * @param unpublishDate end of the window, null for no end
+   * @return the documents which have actually been changed
+   */
+  public Collection<DocumentReference> setPublicationWindows(
+      Collection<DocumentReference> docRefs, Date publishDate, Date unpublishDate);
+
+}
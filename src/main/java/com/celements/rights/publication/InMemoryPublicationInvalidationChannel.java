@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+
+import com.celements.rights.CelementsAuthorizationManager;
+
+/**
+ * Delivers the invalidations synchronously to the authorization manager of this JVM.
+ */
+@Component
+@Named("inmemory")
+@Singleton
+public class InMemoryPublicationInvalidationChannel implements 
+    PublicationInvalidationChannel {
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  AuthorizationManager authManager;
+
+  @Override
+  public void publish(Collection<DocumentReference> docRefs) {
+    if (authManager instanceof CelementsAuthorizationManager) {
+      ((CelementsAuthorizationManager)authManager).invalidatePublication(docRefs);
+    } else {
+      logger.warn("Needs CelementsAuthorizationManager for publication invalidation");
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Publishes documents on the invalidation channel whose publication objects have been
+ * changed by a local save. Saves of a {@link PublicationService} batch are skipped, the
+ * batch publishes all its documents at once.
+ */
+@Component
+@Named("celements.rights.PublicationChangeListener")
+@Singleton
+public class PublicationChangeListener implements EventListener {
+
+  static final String BATCH_EXEC_CONTEXT_KEY = "celements.publication.batchSave";
+
+  @Inject
+  Execution execution;
+
+  @Inject
+  RemoteObservationManagerContext remoteObservationContext;
+
+  @Inject
+  PublicationInvalidationChannel invalidationChannel;
+
+  @Inject
+  @Named("celpublication")
+  AuthorizationSettler celSettler;
+
+  @Override
+  public String getName() {
+    return "celements.rights.PublicationChangeListener";
+  }
+
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), 
+        new DocumentDeletedEvent());
+  }
+
+  @Override
+  public void onEvent(Event event, Object source, Object data) {
+    if ((source instanceof XWikiDocument) && !remoteObservationContext.isRemoteState() 
+        && !isBatchSave()) {
+      XWikiDocument doc = (XWikiDocument) source;
+      if (isPublicationChanged(doc, doc.getOriginalDocument())) {
+        invalidationChannel.publish(Collections.singletonList(doc.getDocumentReference()));
+      }
+    }
+  }
+
+  boolean isBatchSave() {
+    ExecutionContext execContext = execution.getContext();
+    return (execContext != null) && Boolean.TRUE.equals(execContext.getProperty(
+        BATCH_EXEC_CONTEXT_KEY));
+  }
+
+  boolean isPublicationChanged(XWikiDocument doc, XWikiDocument origDoc) {
+    return !getPublicationFingerprint(doc).equals(getPublicationFingerprint(origDoc));
+  }
+
+  List<String> getPublicationFingerprint(XWikiDocument doc) {
+    List<String> fingerprint = new ArrayList<String>();
+    if (doc != null) {
+      DocumentReference pubClassRef = ((CelementsRightServiceImpl)celSettler
+          ).getPublicationClassReference(doc.getDocumentReference().getWikiReference(
+          ).getName());
+      List<BaseObject> objs = doc.getXObjects(pubClassRef);
+      if (objs != null) {
+        for (BaseObject obj : objs) {
+          if (obj != null) {
+            fingerprint.add(getMillis(obj.getDateValue("publishDate")) + "|" 
+                + getMillis(obj.getDateValue("unpublishDate")) + "|" 
+                + obj.getStringValue("recurrence").trim());
+          }
+        }
+      }
+    }
+    return fingerprint;
+  }
+
+  private String getMillis(Date date) {
+    return (date != null) ? Long.toString(date.getTime()) : "";
+  }
+}
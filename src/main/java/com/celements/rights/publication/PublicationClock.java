@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Date;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * The time publication windows are evaluated at. The time is truncated to buckets of
+ * the granularity, thus all evaluations within the same bucket lead to the same
+ * decision.
+ */
+@Role
+public interface PublicationClock {
+
+  /**
+   * @return the start of the current time bucket
+   */
+  public Date getNow();
+
+  /**
+   * @return the bucket size in milliseconds
+   */
+  public long getGranularity();
+
+}
@@ -0,0 +1,40 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Announces documents whose publication state changed, either since their publication
+ * objects have been edited or since a publication transition passed. Receivers evict
+ * exactly these documents from their security cache. The default implementation
+ * delegates to the channel configured by the xwiki.cfg parameter
+ * 'celements.publication.invalidation.channel': 'inmemory' (default) for single nodes
+ * or 'remote' for clusters using XWiki remote observation.
+ */
+@Role
+public interface PublicationInvalidationChannel {
+
+  public void publish(Collection<DocumentReference> docRefs);
+
+}
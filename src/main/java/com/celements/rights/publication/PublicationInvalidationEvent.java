@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Serializable so the remote observation of XWiki forwards it to the other cluster
+ * nodes.
+ */
+public class PublicationInvalidationEvent implements Event, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<DocumentReference> docRefs;
+
+  /**
+   * Matches all publication invalidations.
+   */
+  public PublicationInvalidationEvent() {
+    this(Collections.<DocumentReference>emptyList());
+  }
+
+  public PublicationInvalidationEvent(Collection<DocumentReference> docRefs) {
+    this.docRefs = new ArrayList<DocumentReference>(docRefs);
+  }
+
+  public List<DocumentReference> getDocumentReferences() {
+    return Collections.unmodifiableList(docRefs);
+  }
+
+  @Override
+  public boolean matches(Object otherEvent) {
+    return otherEvent instanceof PublicationInvalidationEvent;
+  }
+
+  @Override
+  public String toString() {
+    return "PublicationInvalidationEvent " + docRefs;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.security.authorization.AuthorizationManager;
+
+import com.celements.rights.CelementsAuthorizationManager;
+
+/**
+ * Receives the invalidations of the remote channel, local and remote ones.
+ */
+@Component
+@Named("celements.rights.PublicationInvalidationEventListener")
+@Singleton
+public class PublicationInvalidationEventListener implements EventListener {
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  AuthorizationManager authManager;
+
+  @Override
+  public String getName() {
+    return "celements.rights.PublicationInvalidationEventListener";
+  }
+
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event>asList(new PublicationInvalidationEvent());
+  }
+
+  @Override
+  public void onEvent(Event event, Object source, Object data) {
+    if (authManager instanceof CelementsAuthorizationManager) {
+      ((CelementsAuthorizationManager)authManager).invalidatePublication(
+          ((PublicationInvalidationEvent) event).getDocumentReferences());
+    } else {
+      logger.warn("Needs CelementsAuthorizationManager for publication invalidation");
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.ActionExecutingEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.authorization.AuthorizationException;
+import org.xwiki.security.authorization.SecurityEntryReader;
+import org.xwiki.security.authorization.cache.ConflictingInsertionException;
+import org.xwiki.security.authorization.cache.ParentEntryEvictedException;
+import org.xwiki.security.authorization.cache.SecurityCache;
+import org.xwiki.security.authorization.internal.SecurityCacheRulesInvalidator;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Opt-in prefetcher: when a document is viewed, the documents it links to are loaded
+ * asynchronously and their rule entries are put into the security cache. The access
+ * checks of the links and menus rendered later on then find the publication objects and
+ * rules already cached. No access is settled here, since the publication overlay of a
+ * settlement depends on the requesting user and the point in time of the check.
+ * Activated by the preference 'publication_prefetch' or the xwiki.cfg parameter
+ * 'celements.publication.prefetch', the number of threads is configured by the xwiki.cfg
+ * parameter 'celements.publication.prefetch.threads' (default 2).
+ */
+@Component
+@Named("celements.rights.PublicationPrefetchListener")
+@Singleton
+public class PublicationPrefetchListener implements EventListener, Disposable {
+
+  static final int MAX_PREFETCH_DOCS = 50;
+  static final int DEFAULT_THREADS = 2;
+  static final int QUEUE_SIZE = 100;
+  static final String THREADS_PARAM = "celements.publication.prefetch.threads";
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  Execution execution;
+
+  @Inject
+  @Named("current")
+  DocumentReferenceResolver<String> docRefResolver;
+
+  @Inject
+  SecurityReferenceFactory securityReferenceFactory;
+
+  @Inject
+  SecurityCache securityCache;
+
+  @Inject
+  SecurityEntryReader securityEntryReader;
+
+  @Inject
+  SecurityCacheRulesInvalidator rulesInvalidator;
+
+  private volatile ExecutorService executor;
+
+  @Override
+  public String getName() {
+    return "celements.rights.PublicationPrefetchListener";
+  }
+
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event>asList(new ActionExecutingEvent("view"));
+  }
+
+  @Override
+  public void onEvent(Event event, Object source, Object data) {
+    if ((source instanceof XWikiDocument) && (data instanceof XWikiContext)) {
+      XWikiContext context = (XWikiContext) data;
+      if (isPrefetchActive(context)) {
+        Set<DocumentReference> docRefs = getLinkedDocRefs((XWikiDocument) source, context);
+        if (!docRefs.isEmpty()) {
+          getExecutor(context).execute(new PrefetchRunnable(newTaskContext(context), 
+              docRefs));
+        }
+      }
+    }
+  }
+
+  boolean isPrefetchActive(XWikiContext context) {
+    return "1".equals(context.getWiki().getXWikiPreference("publication_prefetch", 
+        "celements.publication.prefetch", "0", context));
+  }
+
+  Set<DocumentReference> getLinkedDocRefs(XWikiDocument doc, XWikiContext context) {
+    Set<DocumentReference> docRefs = new LinkedHashSet<DocumentReference>();
+    for (String fullName : doc.getUniqueLinkedPages(context)) {
+      if (docRefs.size() >= MAX_PREFETCH_DOCS) {
+        logger.debug("getLinkedDocRefs: prefetching limited to " + MAX_PREFETCH_DOCS 
+            + " documents for [" + doc.getDocumentReference() + "]");
+        break;
+      }
+      DocumentReference docRef = docRefResolver.resolve(fullName);
+      if (!docRef.equals(doc.getDocumentReference())) {
+        docRefs.add(docRef);
+      }
+    }
+    return docRefs;
+  }
+
+  void prefetch(DocumentReference docRef, XWikiContext context) throws XWikiException, 
+      AuthorizationException {
+    // loads the publication objects into the document cache
+    context.getWiki().getDocument(docRef, context);
+    Deque<SecurityReference> refs = new ArrayDeque<SecurityReference>();
+    for (SecurityReference ref = securityReferenceFactory.newEntityReference(docRef); 
+        ref != null; ref = ref.getParentSecurityReference()) {
+      refs.push(ref);
+    }
+    // like the security cache loader, suspend the invalidator while reading the rules
+    // and add the entries from the wiki down, since each requires its parent entry
+    rulesInvalidator.suspend();
+    try {
+      for (SecurityReference ref : refs) {
+        if (securityCache.get(ref) == null) {
+          securityCache.add(securityEntryReader.read(ref));
+        }
+      }
+    } catch (ParentEntryEvictedException exc) {
+      logger.debug("prefetch: parent entry evicted while prefetching [" + docRef + "]", 
+          exc);
+    } catch (ConflictingInsertionException exc) {
+      logger.debug("prefetch: rules of [" + docRef + "] inserted concurrently", exc);
+    } finally {
+      rulesInvalidator.resume();
+    }
+  }
+
+  /**
+   * The request context must not be used after the request has finished, since it
+   * holds the request, response and document of it. Thus the background task only gets
+   * the wiki, database and user of it.
+   */
+  XWikiContext newTaskContext(XWikiContext context) {
+    XWikiContext taskContext = new XWikiContext();
+    taskContext.setWiki(context.getWiki());
+    taskContext.setMainXWiki(context.getMainXWiki());
+    taskContext.setOriginalDatabase(context.getOriginalDatabase());
+    taskContext.setDatabase(context.getDatabase());
+    taskContext.setUserReference(context.getUserReference());
+    return taskContext;
+  }
+
+  int getThreadCount(XWikiContext context) {
+    long threads = context.getWiki().ParamAsLong(THREADS_PARAM, DEFAULT_THREADS);
+    if ((threads <= 0) || (threads > Integer.MAX_VALUE)) {
+      logger.warn("Invalid " + THREADS_PARAM + " [" + threads + "], using default");
+      threads = DEFAULT_THREADS;
+    }
+    return (int) threads;
+  }
+
+  private ExecutorService getExecutor(XWikiContext context) {
+    if (executor == null) {
+      synchronized (this) {
+        if (executor == null) {
+          int threads = getThreadCount(context);
+          // prefetching is best effort, hence tasks are dropped if the queue is full
+          executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+              new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new PrefetchThreadFactory(), 
+              new ThreadPoolExecutor.DiscardPolicy());
+        }
+      }
+    }
+    return executor;
+  }
+
+  @Override
+  public void dispose() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private class PrefetchRunnable implements Runnable {
+
+    private final XWikiContext context;
+    private final Set<DocumentReference> docRefs;
+
+    PrefetchRunnable(XWikiContext context, Set<DocumentReference> docRefs) {
+      this.context = context;
+      this.docRefs = docRefs;
+    }
+
+    @Override
+    public void run() {
+      ExecutionContext execContext = new ExecutionContext();
+      execContext.setProperty("xwikicontext", context);
+      execution.setContext(execContext);
+      try {
+        for (DocumentReference docRef : docRefs) {
+          try {
+            prefetch(docRef, context);
+          } catch (XWikiException xwe) {
+            logger.info("prefetch: failed to load [" + docRef + "]", xwe);
+          } catch (AuthorizationException authExc) {
+            logger.info("prefetch: failed to load rules for [" + docRef + "]", authExc);
+          }
+        }
+        logger.debug("prefetched publication data for " + docRefs.size() + " documents");
+      } finally {
+        execution.removeContext();
+      }
+    }
+  }
+
+  private static class PrefetchThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PublicationPrefetch-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * A weekly recurring publication window, e.g. "MON-FRI 08:00-18:00; SAT 10:00-14:00".
+ * Rules are separated by ';', each consisting of a comma separated list of days or day
+ * ranges (MON, TUE, WED, THU, FRI, SAT, SUN) and an optional comma separated list of
+ * time ranges (HH:mm-HH:mm, end exclusive). Without a time range the whole day is
+ * active, a time range ending before it starts spans midnight. Times are evaluated in
+ * the default time zone of the server.
+ *
+ * The active minutes of the week and the minutes on which the state changes are
+ * computed once while parsing, thus instances are immutable and thread safe.
+ */
+public class PublicationRecurrence {
+
+  static final int MINUTES_PER_DAY = 24 * 60;
+  static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+  private static final List<String> DAYS = Arrays.asList("MON", "TUE", "WED", "THU", 
+      "FRI", "SAT", "SUN");
+
+  /** Recurrence which never is active, e.g. for invalid rules. */
+  public static final PublicationRecurrence NEVER = new PublicationRecurrence("", 
+      new BitSet(MINUTES_PER_WEEK));
+
+  private final String rule;
+  private final BitSet activeMinutes;
+  private final int[] transitions;
+
+  private PublicationRecurrence(String rule, BitSet activeMinutes) {
+    this.rule = rule;
+    this.activeMinutes = activeMinutes;
+    this.transitions = computeTransitions(activeMinutes);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the rule is not parseable
+   */
+  public static PublicationRecurrence parse(String rule) {
+    if ((rule == null) || rule.trim().isEmpty()) {
+      throw new IllegalArgumentException("empty recurrence rule");
+    }
+    BitSet activeMinutes = new BitSet(MINUTES_PER_WEEK);
+    for (String part : rule.trim().toUpperCase().split(";")) {
+      part = part.trim();
+      if (!part.isEmpty()) {
+        String[] tokens = part.split("\\s+", 2);
+        int[][] timeRanges = new int[][] { { 0, MINUTES_PER_DAY } };
+        if (tokens.length > 1) {
+          timeRanges = parseTimeRanges(tokens[1]);
+        }
+        for (int day : parseDays(tokens[0])) {
+          for (int[] timeRange : timeRanges) {
+            setActive(activeMinutes, day * MINUTES_PER_DAY + timeRange[0], 
+                day * MINUTES_PER_DAY + timeRange[1]);
+          }
+        }
+      }
+    }
+    return new PublicationRecurrence(rule, activeMinutes);
+  }
+
+  public String getRule() {
+    return rule;
+  }
+
+  public boolean isActive(Date date) {
+    return activeMinutes.get(getMinuteOfWeek(toCalendar(date)));
+  }
+
+  /**
+   * @return the point in time after the given date on which the active state changes
+   *         next, null if it never changes
+   */
+  public Date getNextTransition(Date date) {
+    if (transitions.length == 0) {
+      return null;
+    }
+    Calendar cal = toCalendar(date);
+    int minuteOfWeek = getMinuteOfWeek(cal);
+    int idx = Arrays.binarySearch(transitions, minuteOfWeek + 1);
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    int nextMinute;
+    if (idx < transitions.length) {
+      nextMinute = transitions[idx];
+    } else {
+      nextMinute = transitions[0] + MINUTES_PER_WEEK;
+    }
+    // set the fields instead of adding minutes to stay correct over DST changes
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    cal.add(Calendar.DAY_OF_MONTH, (nextMinute / MINUTES_PER_DAY) 
+        - (minuteOfWeek / MINUTES_PER_DAY));
+    cal.set(Calendar.HOUR_OF_DAY, (nextMinute % MINUTES_PER_DAY) / 60);
+    cal.set(Calendar.MINUTE, nextMinute % 60);
+    return cal.getTime();
+  }
+
+  static int getMinuteOfWeek(Calendar cal) {
+    int day = (cal.get(Calendar.DAY_OF_WEEK) + 5) % 7; // monday is 0
+    return day * MINUTES_PER_DAY + cal.get(Calendar.HOUR_OF_DAY) * 60 
+        + cal.get(Calendar.MINUTE);
+  }
+
+  private static Calendar toCalendar(Date date) {
+    Calendar cal = GregorianCalendar.getInstance();
+    cal.setTime(date);
+    return cal;
+  }
+
+  private static int[] computeTransitions(BitSet activeMinutes) {
+    int[] transitions = new int[MINUTES_PER_WEEK];
+    int count = 0;
+    for (int minute = 0; minute < MINUTES_PER_WEEK; minute++) {
+      int prevMinute = (minute + MINUTES_PER_WEEK - 1) % MINUTES_PER_WEEK;
+      if (activeMinutes.get(minute) != activeMinutes.get(prevMinute)) {
+        transitions[count++] = minute;
+      }
+    }
+    return Arrays.copyOf(transitions, count);
+  }
+
+  private static void setActive(BitSet activeMinutes, int from, int to) {
+    for (int minute = from; minute < to; minute++) {
+      activeMinutes.set(minute % MINUTES_PER_WEEK);
+    }
+  }
+
+  private static int[] parseDays(String daysStr) {
+    BitSet days = new BitSet(7);
+    for (String dayToken : daysStr.split(",")) {
+      String[] range = dayToken.trim().split("-");
+      if (range.length == 1) {
+        days.set(parseDay(range[0]));
+      } else if (range.length == 2) {
+        int from = parseDay(range[0]);
+        int to = parseDay(range[1]);
+        for (int day = from; day != to; day = (day + 1) % 7) {
+          days.set(day);
+        }
+        days.set(to);
+      } else {
+        throw new IllegalArgumentException("invalid day range '" + dayToken + "'");
+      }
+    }
+    int[] ret = new int[days.cardinality()];
+    for (int i = 0, day = days.nextSetBit(0); day >= 0; day = days.nextSetBit(day + 1)) {
+      ret[i++] = day;
+    }
+    return ret;
+  }
+
+  private static int parseDay(String dayStr) {
+    int day = DAYS.indexOf(dayStr.trim());
+    if (day < 0) {
+      throw new IllegalArgumentException("invalid day '" + dayStr + "'");
+    }
+    return day;
+  }
+
+  private static int[][] parseTimeRanges(String timesStr) {
+    String[] timeTokens = timesStr.split(",");
+    int[][] ret = new int[timeTokens.length][];
+    for (int i = 0; i < timeTokens.length; i++) {
+      String[] range = timeTokens[i].trim().split("-");
+      if (range.length != 2) {
+        throw new IllegalArgumentException("invalid time range '" + timeTokens[i] + "'");
+      }
+      int from = parseTime(range[0]);
+      int to = parseTime(range[1]);
+      if (to <= from) {
+        to += MINUTES_PER_DAY;
+      }
+      ret[i] = new int[] { from, to };
+    }
+    return ret;
+  }
+
+  private static int parseTime(String timeStr) {
+    String[] hourMin = timeStr.trim().split(":");
+    try {
+      int hour = Integer.parseInt(hourMin[0]);
+      int min = (hourMin.length > 1) ? Integer.parseInt(hourMin[1]) : 0;
+      if ((hourMin.length > 2) || (hour < 0) || (min < 0) || (min > 59) 
+          || ((hour * 60 + min) > MINUTES_PER_DAY)) {
+        throw new IllegalArgumentException("invalid time '" + timeStr + "'");
+      }
+      return hour * 60 + min;
+    } catch (NumberFormatException nfe) {
+      throw new IllegalArgumentException("invalid time '" + timeStr + "'", nfe);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PublicationRecurrence [" + rule + "]";
+  }
+}
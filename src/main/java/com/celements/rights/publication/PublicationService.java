@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+@Component
+@Singleton
+public class PublicationService implements IPublicationServiceRole {
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  Execution execution;
+
+  @Inject
+  PublicationInvalidationChannel invalidationChannel;
+
+  @Inject
+  @Named("celpublication")
+  AuthorizationSettler celSettler;
+
+  @Override
+  public Collection<DocumentReference> setPublicationWindows(
+      Collection<DocumentReference> docRefs, Date publishDate, Date unpublishDate) {
+    Set<DocumentReference> changedDocRefs = new LinkedHashSet<DocumentReference>();
+    ExecutionContext execContext = execution.getContext();
+    execContext.setProperty(PublicationChangeListener.BATCH_EXEC_CONTEXT_KEY, true);
+    try {
+      for (DocumentReference docRef : docRefs) {
+        try {
+          if (setPublicationWindow(docRef, publishDate, unpublishDate)) {
+            changedDocRefs.add(docRef);
+          }
+        } catch (XWikiException xwe) {
+          logger.error("setPublicationWindows: failed to set publication window for [" 
+              + docRef + "]", xwe);
+        }
+      }
+    } finally {
+      execContext.removeProperty(PublicationChangeListener.BATCH_EXEC_CONTEXT_KEY);
+      // the change listener skips batch saves, hence invalidate even if aborted
+      invalidationChannel.publish(changedDocRefs);
+    }
+    logger.info("setPublicationWindows: changed " + changedDocRefs.size() + " of " 
+        + docRefs.size() + " documents");
+    return changedDocRefs;
+  }
+
+  boolean setPublicationWindow(DocumentReference docRef, Date publishDate, 
+      Date unpublishDate) throws XWikiException {
+    XWikiDocument doc = getContext().getWiki().getDocument(docRef, getContext());
+    if (doc.isNew()) {
+      logger.info("setPublicationWindow: skipping not existing document [" + docRef + "]");
+      return false;
+    }
+    DocumentReference pubClassRef = getCelAuthSettler().getPublicationClassReference(
+        docRef.getWikiReference().getName());
+    BaseObject pubObj = null;
+    List<BaseObject> otherPubObjs = new ArrayList<BaseObject>();
+    List<BaseObject> pubObjs = doc.getXObjects(pubClassRef);
+    if (pubObjs != null) {
+      for (BaseObject obj : pubObjs) {
+        if (pubObj == null) {
+          pubObj = obj;
+        } else if (obj != null) {
+          otherPubObjs.add(obj);
+        }
+      }
+    }
+    if (pubObj == null) {
+      pubObj = doc.newXObject(pubClassRef, getContext());
+    } else if (otherPubObjs.isEmpty() 
+        && isSameDate(pubObj.getDateValue("publishDate"), publishDate)
+        && isSameDate(pubObj.getDateValue("unpublishDate"), unpublishDate)) {
+      logger.debug("setPublicationWindow: unchanged for [" + docRef + "]");
+      return false;
+    }
+    // the windows of all publication objects are combined, thus the other ones would
+    // keep the document published outside of the new window
+    for (BaseObject obj : otherPubObjs) {
+      doc.removeXObject(obj);
+    }
+    pubObj.setDateValue("publishDate", publishDate);
+    pubObj.setDateValue("unpublishDate", unpublishDate);
+    getContext().getWiki().saveDocument(doc, "set publication window", true, 
+        getContext());
+    return true;
+  }
+
+  boolean isSameDate(Date date1, Date date2) {
+    if ((date1 == null) || (date2 == null)) {
+      return date1 == date2;
+    }
+    //compare millis since java.sql.Timestamp breaks the symmetry of Date.equals
+    return date1.getTime() == date2.getTime();
+  }
+
+  private CelementsRightServiceImpl getCelAuthSettler() {
+    return (CelementsRightServiceImpl)celSettler;
+  }
+
+  private XWikiContext getContext() {
+    return (XWikiContext)execution.getContext().getProperty("xwikicontext");
+  }
+}
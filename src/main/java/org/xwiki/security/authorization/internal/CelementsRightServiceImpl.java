@@ -21,21 +21,25 @@ package org.xwiki.security.authorization.internal;
 
 import static org.xwiki.security.authorization.RuleState.*;
 
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
-import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.security.GroupSecurityReference;
 import org.xwiki.security.SecurityReference;
@@ -44,8 +48,12 @@ import org.xwiki.security.authorization.AuthorizationSettler;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.security.authorization.SecurityAccess;
 import org.xwiki.security.authorization.SecurityAccessEntry;
+import org.xwiki.security.authorization.SecurityRule;
 import org.xwiki.security.authorization.SecurityRuleEntry;
 
+import com.celements.rights.IAuthorizationProfilerRole;
+import com.celements.rights.publication.PublicationClock;
+import com.celements.rights.publication.PublicationRecurrence;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -63,21 +71,69 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
 
   @Inject
   private Logger logger;
+
+  @Inject
+  IAuthorizationProfilerRole profiler;
+
+  @Inject
+  PublicationClock clock;
   
+  /**
+   * Execution context flag for shadow evaluations, which settle without any of the
+   * caches and load the publication objects from the store.
+   */
+  public static final String SHADOW_EXEC_CONTEXT_KEY = "celements.rights.shadowEvaluation";
+
+  static final int SETTLED_STATES_MAX = 10000;
+  static final int SHARED_ACCESS_MAX = 1000;
+  static final int RECURRENCE_CACHE_MAX = 1000;
+
+  private final Map<String, PublicationRecurrence> recurrenceCache = newLRUMap(
+      RECURRENCE_CACHE_MAX);
+
+  /**
+   * For each settled (user, entity holding the access entry) the settled access entry,
+   * the rule entry of the document it has been settled for and the next publication
+   * transition of it. The access entry identifies the settlement which actually ended up
+   * in the security cache.
+   */
+  private final Map<SettledKey, SettledState> settledStates = newLRUMap(
+      SETTLED_STATES_MAX);
+
+  /**
+   * Access settled by the default settler, shared by all users with the same groups and
+   * without user specific rules. Changed rules lead to new rule entry instances and thus
+   * to new fingerprints, outdated ones are evicted by size.
+   */
+  private final Map<SettleFingerprint, SecurityAccessEntry> sharedAccess = newLRUMap(
+      SHARED_ACCESS_MAX);
+
   public static enum PubUnpub {
     PUBLISHED, UNPUBLISHED;
   }
 
+  public static enum SettledEntryState {
+    VALID, TRANSITIONED, INVALID;
+  }
+
   @Override
   public SecurityAccessEntry settle(UserSecurityReference user,
       Collection<GroupSecurityReference> groups, 
       Deque<SecurityRuleEntry> securityRuleEntries) {
-    SecurityAccessEntry result = defaultImpl.settle(user, groups, securityRuleEntries);
+    profiler.markSettled();
+    boolean isShadow = isShadowEvaluation();
+    SecurityAccessEntry result;
+    if(isShadow) {
+      result = defaultImpl.settle(user, groups, securityRuleEntries);
+    } else {
+      result = settleDefault(user, groups, securityRuleEntries);
+    }
     if(isPublishActive()) {
       //default behaviour: no object means published
-      List<BaseObject> objs = getPublishObjects(securityRuleEntries.getFirst(
-          ).getReference());
-      if(isPubOverride() || (!isUnpubOverride() && !isPublished(objs))) {
+      SecurityRuleEntry docRuleEntry = securityRuleEntries.getFirst();
+      List<BaseObject> objs = getPublishObjects(docRuleEntry.getReference());
+      Date now = getNow();
+      if(isPubOverride() || (!isUnpubOverride() && !isPublished(objs, now))) {
         logger.info("Document not published, checking edit rights.");
         SecurityAccess access = result.getAccess();
         if(access.get(Right.EDIT) != ALLOW) {
@@ -91,12 +147,116 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
       } else {
         logger.info("Document published or publication not activated.");
       }
+      SettledKey key = new SettledKey(result.getUserReference(), result.getReference());
+      if(isShadow) {
+        logger.debug("Shadow settlement, not remembering settled state.");
+      } else if(isPubUnpubOverride()) {
+        settledStates.remove(key);
+      } else {
+        settledStates.put(key, new SettledState(result, docRuleEntry, getValidUntil(
+            getNextTransition(objs, now))));
+      }
     }
     logger.debug("Resulting rights: user=[" + result.getUserReference() + "] access=[" 
         + result.getAccess() + "] ref=[" + result.getReference() + "]");
     return result;
   }
   
+  /**
+   * Settles with the default settler, reusing the access of previous settlements with
+   * identical groups and rule entries if no rule targets the user itself. The returned
+   * access is always a copy, since the publication overlay modifies it.
+   */
+  SecurityAccessEntry settleDefault(UserSecurityReference user,
+      Collection<GroupSecurityReference> groups, 
+      Deque<SecurityRuleEntry> securityRuleEntries) {
+    if (hasUserSpecificRule(user, securityRuleEntries)) {
+      return defaultImpl.settle(user, groups, securityRuleEntries);
+    }
+    SettleFingerprint fingerprint = new SettleFingerprint(user, groups, 
+        securityRuleEntries);
+    SecurityAccessEntry shared = sharedAccess.get(fingerprint);
+    if (shared == null) {
+      SecurityAccessEntry result = defaultImpl.settle(user, groups, securityRuleEntries);
+      SecurityAccess accessCopy = copyAccess(result.getAccess());
+      if (accessCopy != null) {
+        sharedAccess.put(fingerprint, new InternalSecurityAccessEntry(user, 
+            result.getReference(), accessCopy));
+      }
+      return result;
+    } else {
+      SecurityAccess accessCopy = copyAccess(shared.getAccess());
+      if (accessCopy != null) {
+        logger.trace("Reusing settled access for fingerprint of user [" + user + "]");
+        return new InternalSecurityAccessEntry(user, shared.getReference(), accessCopy);
+      } else {
+        return defaultImpl.settle(user, groups, securityRuleEntries);
+      }
+    }
+  }
+
+  boolean hasUserSpecificRule(UserSecurityReference user, 
+      Deque<SecurityRuleEntry> securityRuleEntries) {
+    for (SecurityRuleEntry entry : securityRuleEntries) {
+      for (SecurityRule rule : entry.getRules()) {
+        if (rule.match(user)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private SecurityAccess copyAccess(SecurityAccess access) {
+    if (access instanceof XWikiSecurityAccess) {
+      try {
+        return ((XWikiSecurityAccess)access).clone();
+      } catch (CloneNotSupportedException exc) {
+        logger.warn("Unable to copy settled access", exc);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A cached access entry may be reused as long as it has been settled for the same
+   * document without publication override and no publication transition of this
+   * document has passed since. The rule entry of the document is compared by identity,
+   * since saving the document evicts it from the security cache and thus replaces it.
+   * A passed transition is reported only once per settled state.
+   *
+   * @param user the user of the cached access entry
+   * @param holderRef the entity the access entry is cached on
+   * @param entityEntry the currently cached rule entry of the entity being checked
+   * @param accessEntry the currently cached access entry of the user on holderRef
+   */
+  public SettledEntryState checkSettledEntry(UserSecurityReference user, 
+      SecurityReference holderRef, SecurityRuleEntry entityEntry, 
+      SecurityAccessEntry accessEntry) {
+    if (isPubUnpubOverride()) {
+      return SettledEntryState.INVALID;
+    }
+    SettledKey key = new SettledKey(user, holderRef);
+    synchronized (settledStates) {
+      SettledState state = settledStates.get(key);
+      if ((state == null) || (state.accessEntry != accessEntry) 
+          || (state.docRuleEntry != entityEntry)) {
+        return SettledEntryState.INVALID;
+      } else if (getNow().getTime() < state.validUntil) {
+        return SettledEntryState.VALID;
+      } else {
+        settledStates.remove(key);
+        return SettledEntryState.TRANSITIONED;
+      }
+    }
+  }
+
+  boolean isShadowEvaluation() {
+    ExecutionContext execContext = execution.getContext();
+    return (execContext != null) && Boolean.TRUE.equals(execContext.getProperty(
+        SHADOW_EXEC_CONTEXT_KEY));
+  }
+
   boolean isPubUnpubOverride() {
     PubUnpub val = getPubUnpubFromContext();
     return PubUnpub.PUBLISHED == val || PubUnpub.UNPUBLISHED == val;
@@ -122,7 +282,14 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
   List<BaseObject> getPublishObjects(SecurityReference docRef) {
     List<BaseObject> pubObjs = null;
     try {
-      XWikiDocument doc = getContext().getWiki().getDocument(docRef, getContext());
+      profiler.countDocLoad();
+      XWikiDocument doc;
+      if(isShadowEvaluation()) {
+        doc = getContext().getWiki().getNotCacheStore().loadXWikiDoc(new XWikiDocument(
+            new DocumentReference(docRef)), getContext());
+      } else {
+        doc = getContext().getWiki().getDocument(docRef, getContext());
+      }
       pubObjs = doc.getXObjects(getPublicationClassReference());
     } catch (XWikiException xwe) {
       logger.error("Exception while getting XWikiDocument to check publication dates", 
@@ -135,8 +302,11 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
   }
 
   DocumentReference getPublicationClassReference() {
-    return new DocumentReference(getContext().getDatabase(), "Classes", 
-        "DocumentPublication");
+    return getPublicationClassReference(getContext().getDatabase());
+  }
+
+  public DocumentReference getPublicationClassReference(String wikiName) {
+    return new DocumentReference(wikiName, "Classes", "DocumentPublication");
   }
 
   boolean isRestrictedRightsAction(String accessLevel) {
@@ -156,9 +326,11 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
     if(forDocRef != null) {
       space = forDocRef.getLastSpaceReference().getName();
     }
+    profiler.countPreferenceLookup();
     String isActive = getContext().getWiki().getSpacePreference("publishdate_active", 
         space, "-1", getContext());
     if("-1".equals(isActive)) {
+      profiler.countPreferenceLookup();
       isActive = getContext().getWiki().getXWikiPreference("publishdate_active", 
           "celements.publishdate.active", "0", getContext());
     }
@@ -166,11 +338,16 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
   }
 
   boolean isPublished(List<BaseObject> objs) {
+    return isPublished(objs, getNow());
+  }
+
+  boolean isPublished(List<BaseObject> objs, Date now) {
     boolean isPublished = false;
     if((objs != null) && (!objs.isEmpty())) {
       for(BaseObject obj : objs) {
         if(obj != null) {
-          isPublished |= isAfterStart(obj) && isBeforeEnd(obj);
+          isPublished |= isAfterStart(obj, now) && isBeforeEnd(obj, now) 
+              && isInRecurrence(obj, now);
         }
       }
     } else {
@@ -180,18 +357,205 @@ public class CelementsRightServiceImpl implements AuthorizationSettler {
   }
   
   boolean isAfterStart(BaseObject obj) {
-    Calendar cal = GregorianCalendar.getInstance();
+    return isAfterStart(obj, getNow());
+  }
+
+  boolean isAfterStart(BaseObject obj, Date now) {
     Date pubDate = obj.getDateValue("publishDate");
-    return (pubDate == null) || cal.getTime().after(pubDate);
+    return (pubDate == null) || now.after(pubDate);
   }
 
   boolean isBeforeEnd(BaseObject obj) {
-    Calendar cal = GregorianCalendar.getInstance();
+    return isBeforeEnd(obj, getNow());
+  }
+
+  boolean isBeforeEnd(BaseObject obj, Date now) {
     Date unpubDate = obj.getDateValue("unpublishDate");
-    return (unpubDate == null) || cal.getTime().before(unpubDate);
+    return (unpubDate == null) || now.before(unpubDate);
+  }
+
+  boolean isInRecurrence(BaseObject obj, Date now) {
+    PublicationRecurrence recurrence = getRecurrence(obj);
+    return (recurrence == null) || recurrence.isActive(now);
+  }
+
+  /**
+   * @return the recurrence of the given publication object, null if none is set. An
+   *         invalid recurrence never is active.
+   */
+  PublicationRecurrence getRecurrence(BaseObject obj) {
+    String rule = obj.getStringValue("recurrence").trim();
+    PublicationRecurrence recurrence = null;
+    if (!rule.isEmpty()) {
+      recurrence = recurrenceCache.get(rule);
+      if (recurrence == null) {
+        try {
+          recurrence = PublicationRecurrence.parse(rule);
+        } catch (IllegalArgumentException iae) {
+          logger.warn("Invalid publication recurrence '" + rule + "' on object [" 
+              + obj.getDocumentReference() + "]: " + iae.getMessage());
+          recurrence = PublicationRecurrence.NEVER;
+        }
+        recurrenceCache.put(rule, recurrence);
+      }
+    }
+    return recurrence;
+  }
+
+  /**
+   * @return the earliest point in time after now on which the publication state of the
+   *         given objects may change, null if it never changes. Since the publish date
+   *         itself is excluded (see {@link #isAfterStart(BaseObject, Date)}), it takes
+   *         effect one millisecond after it.
+   */
+  Date getNextTransition(List<BaseObject> objs, Date now) {
+    Date next = null;
+    if (objs != null) {
+      for (BaseObject obj : objs) {
+        if (obj != null) {
+          Date pubDate = obj.getDateValue("publishDate");
+          if (pubDate != null) {
+            next = getEarlierFutureDate(next, new Date(pubDate.getTime() + 1), now);
+          }
+          next = getEarlierFutureDate(next, obj.getDateValue("unpublishDate"), now);
+          PublicationRecurrence recurrence = getRecurrence(obj);
+          if (recurrence != null) {
+            next = getEarlierFutureDate(next, recurrence.getNextTransition(now), now);
+          }
+        }
+      }
+    }
+    return next;
+  }
+
+  private Date getEarlierFutureDate(Date current, Date candidate, Date now) {
+    if ((candidate != null) && candidate.after(now) 
+        && ((current == null) || candidate.before(current))) {
+      return candidate;
+    }
+    return current;
+  }
+
+  /**
+   * @return the start of the first clock bucket in which the given transition has taken
+   *         place, {@link Long#MAX_VALUE} if there is no transition
+   */
+  long getValidUntil(Date nextTransition) {
+    if (nextTransition == null) {
+      return Long.MAX_VALUE;
+    }
+    long millis = nextTransition.getTime();
+    long granularity = clock.getGranularity();
+    if ((granularity > 1) && ((millis % granularity) != 0)) {
+      millis += granularity - (millis % granularity);
+    }
+    return millis;
+  }
+
+  Date getNow() {
+    return clock.getNow();
   }
   
   XWikiContext getContext() {
     return (XWikiContext)execution.getContext().getProperty("xwikicontext");
   }
+
+  private static <K, V> Map<K, V> newLRUMap(final int maxSize) {
+    return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+      }
+    });
+  }
+
+  /**
+   * Identifies a settlement by the wiki of the user, its groups and the identity of the
+   * rule entries of the settled entity chain.
+   */
+  private static final class SettleFingerprint {
+
+    private final SecurityReference userWikiRef;
+    private final Set<GroupSecurityReference> groups;
+    private final SecurityRuleEntry[] ruleEntries;
+    private final int hashCode;
+
+    SettleFingerprint(UserSecurityReference user, Collection<GroupSecurityReference> groups,
+        Deque<SecurityRuleEntry> ruleEntries) {
+      this.userWikiRef = user.getWikiReference();
+      this.groups = (groups != null) ? new HashSet<GroupSecurityReference>(groups) 
+          : Collections.<GroupSecurityReference>emptySet();
+      this.ruleEntries = ruleEntries.toArray(new SecurityRuleEntry[ruleEntries.size()]);
+      int hash = 31 * ObjectUtils.hashCode(userWikiRef) + this.groups.hashCode();
+      for (SecurityRuleEntry entry : this.ruleEntries) {
+        hash = 31 * hash + System.identityHashCode(entry);
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof SettleFingerprint) {
+        SettleFingerprint other = (SettleFingerprint) obj;
+        if ((hashCode != other.hashCode) || !ObjectUtils.equals(userWikiRef, 
+            other.userWikiRef) || (ruleEntries.length != other.ruleEntries.length)) {
+          return false;
+        }
+        for (int i = 0; i < ruleEntries.length; i++) {
+          if (ruleEntries[i] != other.ruleEntries[i]) {
+            return false;
+          }
+        }
+        return groups.equals(other.groups);
+      }
+      return false;
+    }
+  }
+
+  private static final class SettledKey {
+
+    private final UserSecurityReference user;
+    private final SecurityReference holderRef;
+
+    SettledKey(UserSecurityReference user, SecurityReference holderRef) {
+      this.user = user;
+      this.holderRef = holderRef;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * ObjectUtils.hashCode(user) + ObjectUtils.hashCode(holderRef);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof SettledKey) {
+        SettledKey other = (SettledKey) obj;
+        return ObjectUtils.equals(user, other.user) 
+            && ObjectUtils.equals(holderRef, other.holderRef);
+      }
+      return false;
+    }
+  }
+
+  private static final class SettledState {
+
+    private final SecurityAccessEntry accessEntry;
+    private final SecurityRuleEntry docRuleEntry;
+    private final long validUntil;
+
+    SettledState(SecurityAccessEntry accessEntry, SecurityRuleEntry docRuleEntry, 
+        long validUntil) {
+      this.accessEntry = accessEntry;
+      this.docRuleEntry = docRuleEntry;
+      this.validUntil = validUntil;
+    }
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.Right;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.celements.rights.AuthorizationProfile.Check;
+
+public class AuthorizationProfilerTest extends AbstractBridgedComponentTestCase {
+  AuthorizationProfiler profiler;
+  DocumentReference docRef;
+
+  @Before
+  public void setUp_AuthorizationProfilerTest() throws Exception {
+    profiler = new AuthorizationProfiler();
+    profiler.execution = getComponentManager().lookup(Execution.class);
+    docRef = new DocumentReference(getContext().getDatabase(), "Space", "Doc");
+  }
+
+  @Test
+  public void testNotStarted() {
+    assertNull(profiler.getProfile());
+    Check check = profiler.startCheck(Right.VIEW, docRef);
+    assertNull(check);
+    profiler.markCacheHit();
+    profiler.countDocLoad();
+    profiler.endCheck(check, true);
+    assertNull(profiler.getProfile());
+  }
+
+  @Test
+  public void testRecording() {
+    AuthorizationProfile profile = profiler.start();
+    assertSame(profile, profiler.getProfile());
+    Check outer = profiler.startCheck(Right.VIEW, docRef);
+    profiler.markInvalidated();
+    profiler.markSettled();
+    profiler.countPreferenceLookup();
+    profiler.countPreferenceLookup();
+    Check inner = profiler.startCheck(Right.EDIT, docRef);
+    profiler.markCacheHit();
+    profiler.endCheck(inner, false);
+    profiler.countDocLoad();
+    profiler.endCheck(outer, true);
+    assertEquals(2, profile.getCheckCount());
+    assertEquals(1, profile.getCacheHitCount());
+    assertSame(outer, profile.getChecks().get(0));
+    assertEquals(0, outer.getDepth());
+    assertEquals(Boolean.TRUE, outer.getGranted());
+    assertTrue(outer.isInvalidated());
+    assertTrue(outer.isSettled());
+    assertFalse(outer.isCacheHit());
+    assertEquals(1, outer.getDocLoads());
+    assertEquals(2, outer.getPreferenceLookups());
+    assertEquals(1, inner.getDepth());
+    assertEquals(Boolean.FALSE, inner.getGranted());
+    assertTrue(inner.isCacheHit());
+    assertEquals(0, inner.getDocLoads());
+    assertEquals(outer.getElapsedNanos(), profile.getElapsedNanos());
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.XWiki;
+
+public class CelementsRightScriptServiceTest extends AbstractBridgedComponentTestCase {
+  CelementsRightScriptService scriptService;
+  XWiki xwiki;
+
+  @Before
+  public void setUp_CelementsRightScriptServiceTest() throws Exception {
+    scriptService = new CelementsRightScriptService();
+    scriptService.execution = getComponentManager().lookup(Execution.class);
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+  }
+
+  @Test
+  public void testHasEditRight_otherWiki() {
+    DocumentReference docRef = new DocumentReference(getContext().getDatabase() 
+        + "other", "Space", "Doc");
+    replay(xwiki);
+    assertFalse(scriptService.hasEditRight(docRef));
+    verify(xwiki);
+  }
+}
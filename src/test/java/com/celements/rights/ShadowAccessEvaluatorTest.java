@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.GroupSecurityReference;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.security.authorization.RuleState;
+import org.xwiki.security.authorization.SecurityAccess;
+import org.xwiki.security.authorization.SecurityAccessEntry;
+import org.xwiki.security.authorization.SecurityEntryReader;
+import org.xwiki.security.authorization.SecurityRuleEntry;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+public class ShadowAccessEvaluatorTest extends AbstractBridgedComponentTestCase {
+  ShadowAccessEvaluator evaluator;
+  XWiki xwiki;
+
+  @Before
+  public void setUp_ShadowAccessEvaluatorTest() throws Exception {
+    evaluator = new ShadowAccessEvaluator();
+    evaluator.execution = getComponentManager().lookup(Execution.class);
+    evaluator.securityReferenceFactory = getComponentManager().lookup(
+        SecurityReferenceFactory.class);
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+  }
+
+  @Test
+  public void testGetSampleRate() {
+    expect(xwiki.Param(eq(ShadowAccessEvaluator.SAMPLE_RATE_PARAM), eq("0"))
+        ).andReturn("0.25").once();
+    replay(xwiki);
+    assertEquals(0.25, evaluator.getSampleRate(), 0.0);
+    assertEquals(0.25, evaluator.getSampleRate(), 0.0);
+    verify(xwiki);
+  }
+
+  @Test
+  public void testGetSampleRate_invalid() {
+    expect(xwiki.Param(eq(ShadowAccessEvaluator.SAMPLE_RATE_PARAM), eq("0"))
+        ).andReturn("often").once();
+    replay(xwiki);
+    assertEquals(0.0, evaluator.getSampleRate(), 0.0);
+    verify(xwiki);
+  }
+
+  @Test
+  public void testSample_noExecutionContext() {
+    Execution execution = createMock(Execution.class);
+    expect(execution.getContext()).andReturn(null).anyTimes();
+    evaluator.execution = execution;
+    replay(execution, xwiki);
+    evaluator.sample(Right.VIEW, new DocumentReference(getContext().getDatabase(), 
+        "XWiki", "user"), new DocumentReference(getContext().getDatabase(), "Content", 
+        "Doc"), true);
+    assertEquals(0.0, evaluator.getSampleRate(), 0.0);
+    assertEquals(Long.valueOf(0), evaluator.getStatistics().get("sampled"));
+    verify(execution, xwiki);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEvaluate_countsDivergences() throws Exception {
+    evaluator = (ShadowAccessEvaluator) getComponentManager().lookup(
+        IShadowAccessEvaluatorRole.class);
+    SecurityEntryReader reader = createMock(SecurityEntryReader.class);
+    AuthorizationSettler settler = createMock(AuthorizationSettler.class);
+    evaluator.securityEntryReader = reader;
+    evaluator.celSettler = settler;
+    String wiki = getContext().getDatabase();
+    DocumentReference userRef = new DocumentReference(wiki, "XWiki", "user");
+    DocumentReference docRef = new DocumentReference(wiki, "Content", "Doc");
+    XWikiGroupService gs = createMock(XWikiGroupService.class);
+    expect(xwiki.getGroupService(same(getContext()))).andReturn(gs).anyTimes();
+    expect(gs.getAllGroupsReferencesForMember(eq(userRef), eq(0), eq(0), 
+        same(getContext()))).andReturn(Collections.<DocumentReference>emptyList()
+        ).times(2);
+    SecurityRuleEntry ruleEntry = createMock(SecurityRuleEntry.class);
+    expect(reader.read((SecurityReference) anyObject())).andReturn(ruleEntry
+        ).atLeastOnce();
+    SecurityAccess access = createMock(SecurityAccess.class);
+    expect(access.get(Right.VIEW)).andReturn(RuleState.ALLOW).times(2);
+    SecurityAccessEntry accessEntry = createMock(SecurityAccessEntry.class);
+    expect(accessEntry.getAccess()).andReturn(access).times(2);
+    expect(settler.settle((UserSecurityReference) anyObject(), 
+        (Collection<GroupSecurityReference>) anyObject(), 
+        (Deque<SecurityRuleEntry>) anyObject())).andReturn(accessEntry).times(2);
+    replay(xwiki, gs, reader, settler, ruleEntry, access, accessEntry);
+    evaluator.evaluate(Right.VIEW, userRef, docRef, true);
+    evaluator.evaluate(Right.VIEW, userRef, docRef, false);
+    verify(xwiki, gs, reader, settler, ruleEntry, access, accessEntry);
+    assertEquals(Long.valueOf(2), evaluator.getStatistics().get("compared"));
+    assertEquals(Long.valueOf(1), evaluator.getStatistics().get("divergences"));
+    assertEquals(Long.valueOf(0), evaluator.getStatistics().get("failed"));
+  }
+
+  @Test
+  public void testNewTaskContext() {
+    DocumentReference userRef = new DocumentReference(getContext().getDatabase(), 
+        "XWiki", "user");
+    getContext().setUserReference(userRef);
+    getContext().setDoc(new XWikiDocument(new DocumentReference(
+        getContext().getDatabase(), "Content", "Doc")));
+    replay(xwiki);
+    XWikiContext taskContext = evaluator.newTaskContext(getContext());
+    verify(xwiki);
+    assertNotSame(getContext(), taskContext);
+    assertSame(xwiki, taskContext.getWiki());
+    assertEquals(getContext().getDatabase(), taskContext.getDatabase());
+    assertEquals(userRef, taskContext.getUserReference());
+    assertNull(taskContext.getDoc());
+  }
+
+  @Test
+  public void testGetAllGroups_guest() throws XWikiException {
+    replay(xwiki);
+    assertTrue(evaluator.getAllGroups(null).isEmpty());
+    verify(xwiki);
+  }
+
+  @Test
+  public void testGetAllGroups_nested() throws XWikiException {
+    String wiki = getContext().getDatabase();
+    DocumentReference userRef = new DocumentReference(wiki, "XWiki", "user");
+    DocumentReference groupRef = new DocumentReference(wiki, "XWiki", "Editors");
+    DocumentReference allGroupRef = new DocumentReference(wiki, "XWiki", "XWikiAllGroup");
+    XWikiGroupService gs = createMock(XWikiGroupService.class);
+    expect(xwiki.getGroupService(same(getContext()))).andReturn(gs).anyTimes();
+    expect(gs.getAllGroupsReferencesForMember(eq(userRef), eq(0), eq(0), 
+        same(getContext()))).andReturn(Arrays.asList(groupRef, allGroupRef)).once();
+    expect(gs.getAllGroupsReferencesForMember(eq(groupRef), eq(0), eq(0), 
+        same(getContext()))).andReturn(Arrays.asList(allGroupRef)).once();
+    expect(gs.getAllGroupsReferencesForMember(eq(allGroupRef), eq(0), eq(0), 
+        same(getContext()))).andReturn(Collections.<DocumentReference>emptyList()).once();
+    replay(xwiki, gs);
+    Collection<GroupSecurityReference> groups = evaluator.getAllGroups(userRef);
+    verify(xwiki, gs);
+    assertEquals(2, groups.size());
+    assertTrue(groups.contains(evaluator.securityReferenceFactory.newGroupReference(
+        groupRef)));
+    assertTrue(groups.contains(evaluator.securityReferenceFactory.newGroupReference(
+        allGroupRef)));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.XWiki;
+
+public class DefaultPublicationClockTest extends AbstractBridgedComponentTestCase {
+  DefaultPublicationClock clock;
+  XWiki xwiki;
+
+  @Before
+  public void setUp_DefaultPublicationClockTest() throws Exception {
+    clock = new DefaultPublicationClock();
+    clock.execution = getComponentManager().lookup(Execution.class);
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+  }
+
+  @Test
+  public void testGetBucketStart() {
+    assertEquals(61000L, DefaultPublicationClock.getBucketStart(61999L, 1000L));
+    assertEquals(60000L, DefaultPublicationClock.getBucketStart(119999L, 60000L));
+    assertEquals(61999L, DefaultPublicationClock.getBucketStart(61999L, 1L));
+    assertEquals(61999L, DefaultPublicationClock.getBucketStart(61999L, 0L));
+  }
+
+  @Test
+  public void testGetNow() {
+    expect(xwiki.ParamAsLong(eq(DefaultPublicationClock.GRANULARITY_PARAM), 
+        eq(DefaultPublicationClock.DEFAULT_GRANULARITY))).andReturn(60000L).once();
+    replay(xwiki);
+    long before = System.currentTimeMillis();
+    long now = clock.getNow().getTime();
+    long after = System.currentTimeMillis();
+    assertEquals(0L, now % 60000L);
+    assertTrue(now <= after);
+    assertTrue(now > before - 60000L);
+    assertEquals(60000L, clock.getGranularity());
+    verify(xwiki);
+  }
+}
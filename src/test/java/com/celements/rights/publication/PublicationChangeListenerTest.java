@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+public class PublicationChangeListenerTest extends AbstractBridgedComponentTestCase {
+  PublicationChangeListener listener;
+  DocumentReference docRef;
+  DocumentReference pubClassRef;
+
+  @Before
+  public void setUp_PublicationChangeListenerTest() throws Exception {
+    listener = new PublicationChangeListener();
+    CelementsRightServiceImpl rightService = new CelementsRightServiceImpl();
+    listener.celSettler = rightService;
+    docRef = new DocumentReference(getContext().getDatabase(), "Space", "Doc");
+    pubClassRef = rightService.getPublicationClassReference(getContext().getDatabase());
+  }
+
+  @Test
+  public void testIsPublicationChanged_noObjects() {
+    assertFalse(listener.isPublicationChanged(new XWikiDocument(docRef), 
+        new XWikiDocument(docRef)));
+    assertFalse(listener.isPublicationChanged(new XWikiDocument(docRef), null));
+  }
+
+  @Test
+  public void testIsPublicationChanged_same() {
+    assertFalse(listener.isPublicationChanged(createDoc(new Date(1000L), "MON"), 
+        createDoc(new java.sql.Timestamp(1000L), " MON ")));
+  }
+
+  @Test
+  public void testIsPublicationChanged_dateChanged() {
+    assertTrue(listener.isPublicationChanged(createDoc(new Date(1000L), ""), 
+        createDoc(new Date(2000L), "")));
+  }
+
+  @Test
+  public void testIsPublicationChanged_recurrenceChanged() {
+    assertTrue(listener.isPublicationChanged(createDoc(null, "MON"), 
+        createDoc(null, "TUE")));
+  }
+
+  @Test
+  public void testIsPublicationChanged_added_deleted() {
+    assertTrue(listener.isPublicationChanged(createDoc(null, ""), 
+        new XWikiDocument(docRef)));
+    assertTrue(listener.isPublicationChanged(new XWikiDocument(docRef), 
+        createDoc(null, "")));
+  }
+
+  private XWikiDocument createDoc(Date publishDate, String recurrence) {
+    XWikiDocument doc = new XWikiDocument(docRef);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(pubClassRef);
+    obj.setDateValue("publishDate", publishDate);
+    obj.setStringValue("recurrence", recurrence);
+    doc.addXObject(obj);
+    return doc;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.security.authorization.cache.SecurityCache;
+import org.xwiki.security.authorization.internal.SecurityCacheRulesInvalidator;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.celements.rights.TestComponents;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+public class PublicationPrefetchListenerTest extends AbstractBridgedComponentTestCase {
+  PublicationPrefetchListener listener;
+  XWiki xwiki;
+
+  @Before
+  public void setUp_PublicationPrefetchListenerTest() throws Exception {
+    TestComponents.register(getComponentManager(), SecurityCache.class, createMock(
+        SecurityCache.class));
+    TestComponents.register(getComponentManager(), SecurityCacheRulesInvalidator.class, 
+        createMock(SecurityCacheRulesInvalidator.class));
+    listener = (PublicationPrefetchListener) getComponentManager().lookup(
+        EventListener.class, "celements.rights.PublicationPrefetchListener");
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+  }
+
+  @Test
+  public void testIsPrefetchActive() {
+    expect(xwiki.getXWikiPreference(eq("publication_prefetch"), 
+        eq("celements.publication.prefetch"), eq("0"), same(getContext()))).andReturn("1"
+        ).once();
+    expect(xwiki.getXWikiPreference(eq("publication_prefetch"), 
+        eq("celements.publication.prefetch"), eq("0"), same(getContext()))).andReturn("0"
+        ).once();
+    replay(xwiki);
+    assertTrue(listener.isPrefetchActive(getContext()));
+    assertFalse(listener.isPrefetchActive(getContext()));
+    verify(xwiki);
+  }
+
+  @Test
+  public void testGetLinkedDocRefs_limitAndSelf() {
+    DocumentReference selfRef = new DocumentReference(getContext().getDatabase(), 
+        "Content", "Self");
+    List<String> links = new ArrayList<String>();
+    links.add("Content.Self");
+    for (int i = 0; i <= PublicationPrefetchListener.MAX_PREFETCH_DOCS; i++) {
+      links.add("Content.Doc" + i);
+    }
+    XWikiDocument doc = createMock(XWikiDocument.class);
+    expect(doc.getUniqueLinkedPages(same(getContext()))).andReturn(links).once();
+    expect(doc.getDocumentReference()).andReturn(selfRef).anyTimes();
+    replay(xwiki, doc);
+    Set<DocumentReference> docRefs = listener.getLinkedDocRefs(doc, getContext());
+    verify(xwiki, doc);
+    assertEquals(PublicationPrefetchListener.MAX_PREFETCH_DOCS, docRefs.size());
+    assertFalse(docRefs.contains(selfRef));
+    assertEquals(new DocumentReference(getContext().getDatabase(), "Content", "Doc0"), 
+        docRefs.iterator().next());
+    assertFalse(docRefs.contains(new DocumentReference(getContext().getDatabase(), 
+        "Content", "Doc" + PublicationPrefetchListener.MAX_PREFETCH_DOCS)));
+  }
+
+  @Test
+  public void testGetLinkedDocRefs_none() {
+    XWikiDocument doc = createMock(XWikiDocument.class);
+    expect(doc.getUniqueLinkedPages(same(getContext()))).andReturn(
+        new ArrayList<String>()).once();
+    expect(doc.getDocumentReference()).andReturn(new DocumentReference(
+        getContext().getDatabase(), "Content", "Self")).anyTimes();
+    replay(xwiki, doc);
+    assertTrue(listener.getLinkedDocRefs(doc, getContext()).isEmpty());
+    verify(xwiki, doc);
+  }
+
+  @Test
+  public void testGetThreadCount() {
+    expect(xwiki.ParamAsLong(eq(PublicationPrefetchListener.THREADS_PARAM), 
+        eq((long) PublicationPrefetchListener.DEFAULT_THREADS))).andReturn(4L).once();
+    replay(xwiki);
+    assertEquals(4, listener.getThreadCount(getContext()));
+    verify(xwiki);
+  }
+
+  @Test
+  public void testGetThreadCount_invalid() {
+    expect(xwiki.ParamAsLong(eq(PublicationPrefetchListener.THREADS_PARAM), 
+        eq((long) PublicationPrefetchListener.DEFAULT_THREADS))).andReturn(0L).once();
+    expect(xwiki.ParamAsLong(eq(PublicationPrefetchListener.THREADS_PARAM), 
+        eq((long) PublicationPrefetchListener.DEFAULT_THREADS))).andReturn(-3L).once();
+    replay(xwiki);
+    assertEquals(PublicationPrefetchListener.DEFAULT_THREADS, listener.getThreadCount(
+        getContext()));
+    assertEquals(PublicationPrefetchListener.DEFAULT_THREADS, listener.getThreadCount(
+        getContext()));
+    verify(xwiki);
+  }
+
+  @Test
+  public void testNewTaskContext() {
+    DocumentReference userRef = new DocumentReference(getContext().getDatabase(), 
+        "XWiki", "user");
+    getContext().setUserReference(userRef);
+    getContext().setDoc(new XWikiDocument(new DocumentReference(
+        getContext().getDatabase(), "Content", "Doc")));
+    getContext().put("someRequestEntry", "value");
+    replay(xwiki);
+    XWikiContext taskContext = listener.newTaskContext(getContext());
+    verify(xwiki);
+    assertNotSame(getContext(), taskContext);
+    assertSame(xwiki, taskContext.getWiki());
+    assertEquals(getContext().getDatabase(), taskContext.getDatabase());
+    assertEquals(userRef, taskContext.getUserReference());
+    assertNull(taskContext.getDoc());
+    assertNull(taskContext.get("someRequestEntry"));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+public class PublicationRecurrenceTest {
+
+  @Test
+  public void testIsActive_weekdays() {
+    PublicationRecurrence recurrence = PublicationRecurrence.parse("MON-FRI 08:00-18:00");
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 7, 8, 0)));
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 11, 17, 59)));
+    assertFalse(recurrence.isActive(getDate(Calendar.JANUARY, 7, 7, 59)));
+    assertFalse(recurrence.isActive(getDate(Calendar.JANUARY, 7, 18, 0)));
+    assertFalse(recurrence.isActive(getDate(Calendar.JANUARY, 12, 12, 0)));
+  }
+
+  @Test
+  public void testIsActive_wholeDay_overnight() {
+    PublicationRecurrence recurrence = PublicationRecurrence.parse("sun; FRI 22:00-02:00");
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 13, 0, 0)));
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 13, 23, 59)));
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 11, 23, 0)));
+    assertTrue(recurrence.isActive(getDate(Calendar.JANUARY, 12, 1, 59)));
+    assertFalse(recurrence.isActive(getDate(Calendar.JANUARY, 12, 2, 0)));
+    assertFalse(recurrence.isActive(getDate(Calendar.JANUARY, 14, 0, 0)));
+  }
+
+  @Test
+  public void testGetNextTransition() {
+    PublicationRecurrence recurrence = PublicationRecurrence.parse(
+        "MON-FRI 08:00-12:00,13:00-18:00");
+    assertEquals(getDate(Calendar.JANUARY, 7, 12, 0), recurrence.getNextTransition(
+        getDate(Calendar.JANUARY, 7, 10, 30)));
+    assertEquals(getDate(Calendar.JANUARY, 7, 13, 0), recurrence.getNextTransition(
+        getDate(Calendar.JANUARY, 7, 12, 0)));
+    assertEquals(getDate(Calendar.JANUARY, 14, 8, 0), recurrence.getNextTransition(
+        getDate(Calendar.JANUARY, 11, 18, 0)));
+    assertEquals(getDate(Calendar.JANUARY, 14, 8, 0), recurrence.getNextTransition(
+        getDate(Calendar.JANUARY, 13, 23, 59)));
+  }
+
+  @Test
+  public void testGetNextTransition_never() {
+    assertNull(PublicationRecurrence.parse("MON-SUN").getNextTransition(new Date()));
+    assertNull(PublicationRecurrence.NEVER.getNextTransition(new Date()));
+  }
+
+  @Test
+  public void testParse_invalid() {
+    for (String rule : new String[] { "", "MONDAY", "MON 8:00", "MON 25:00-26:00", 
+        "MON-TUE-WED", "MON 08:xx-10:00" }) {
+      try {
+        PublicationRecurrence.parse(rule);
+        fail("IllegalArgumentException expected for '" + rule + "'");
+      } catch (IllegalArgumentException iae) {
+        // expected
+      }
+    }
+  }
+
+  private Date getDate(int month, int day, int hour, int minute) {
+    // january 7th 2013 is a monday
+    return new GregorianCalendar(2013, month, day, hour, minute).getTime();
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.celements.rights.publication;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.easymock.IAnswer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+public class PublicationServiceTest extends AbstractBridgedComponentTestCase {
+  PublicationService pubService;
+  CelementsRightServiceImpl rightService;
+  PublicationInvalidationChannel invalidationChannel;
+  XWiki xwiki;
+
+  @Before
+  public void setUp_PublicationServiceTest() throws Exception {
+    rightService = new CelementsRightServiceImpl();
+    pubService = (PublicationService) getComponentManager().lookup(
+        IPublicationServiceRole.class);
+    pubService.celSettler = rightService;
+    invalidationChannel = createMock(PublicationInvalidationChannel.class);
+    pubService.invalidationChannel = invalidationChannel;
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+  }
+
+  @Test
+  public void testIsSameDate() {
+    assertTrue(pubService.isSameDate(null, null));
+    assertFalse(pubService.isSameDate(new Date(), null));
+    assertFalse(pubService.isSameDate(null, new Date()));
+    assertTrue(pubService.isSameDate(new Date(1000L), new java.sql.Timestamp(1000L)));
+    assertTrue(pubService.isSameDate(new java.sql.Timestamp(1000L), new Date(1000L)));
+    assertFalse(pubService.isSameDate(new Date(1000L), new Date(2000L)));
+  }
+
+  @Test
+  public void testSetPublicationWindow_unchanged() throws XWikiException {
+    DocumentReference docRef = new DocumentReference(getContext().getDatabase(), "Space", 
+        "Doc");
+    XWikiDocument doc = new XWikiDocument(docRef);
+    doc.setNew(false);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(rightService.getPublicationClassReference(
+        getContext().getDatabase()));
+    obj.setDateValue("publishDate", new Date(1000L));
+    doc.addXObject(obj);
+    expect(xwiki.getDocument(eq(docRef), same(getContext()))).andReturn(doc).once();
+    replay(xwiki);
+    assertFalse(pubService.setPublicationWindow(docRef, new Date(1000L), null));
+    verify(xwiki);
+  }
+
+  @Test
+  public void testSetPublicationWindow_changed() throws XWikiException {
+    DocumentReference docRef = new DocumentReference(getContext().getDatabase(), "Space", 
+        "Doc");
+    XWikiDocument doc = new XWikiDocument(docRef);
+    doc.setNew(false);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(rightService.getPublicationClassReference(
+        getContext().getDatabase()));
+    obj.setDateValue("publishDate", new Date(1000L));
+    doc.addXObject(obj);
+    expect(xwiki.getDocument(eq(docRef), same(getContext()))).andReturn(doc).once();
+    xwiki.saveDocument(same(doc), eq("set publication window"), eq(true), 
+        same(getContext()));
+    expectLastCall().once();
+    replay(xwiki);
+    assertTrue(pubService.setPublicationWindow(docRef, new Date(1000L), 
+        new Date(5000L)));
+    assertEquals(5000L, obj.getDateValue("unpublishDate").getTime());
+    verify(xwiki);
+  }
+
+  @Test
+  public void testSetPublicationWindow_notExisting() throws XWikiException {
+    DocumentReference docRef = new DocumentReference(getContext().getDatabase(), "Space", 
+        "Typo");
+    XWikiDocument doc = new XWikiDocument(docRef);
+    expect(xwiki.getDocument(eq(docRef), same(getContext()))).andReturn(doc).once();
+    replay(xwiki);
+    assertFalse(pubService.setPublicationWindow(docRef, new Date(1000L), null));
+    verify(xwiki);
+    assertTrue(doc.getXObjects().isEmpty());
+  }
+
+  @Test
+  public void testSetPublicationWindows() throws XWikiException {
+    DocumentReference docRef1 = new DocumentReference(getContext().getDatabase(), 
+        "Space", "Doc1");
+    DocumentReference docRef2 = new DocumentReference(getContext().getDatabase(), 
+        "Space", "Doc2");
+    DocumentReference docRef3 = new DocumentReference(getContext().getDatabase(), 
+        "Space", "Doc3");
+    XWikiDocument doc1 = createPubDoc(docRef1, new Date(2000L));
+    XWikiDocument doc3 = createPubDoc(docRef3, new Date(1000L));
+    expect(xwiki.getDocument(eq(docRef1), same(getContext()))).andAnswer(
+        new BatchCheckingAnswer(doc1)).once();
+    expect(xwiki.getDocument(eq(docRef2), same(getContext()))).andThrow(
+        new XWikiException()).once();
+    expect(xwiki.getDocument(eq(docRef3), same(getContext()))).andAnswer(
+        new BatchCheckingAnswer(doc3)).once();
+    xwiki.saveDocument(same(doc1), eq("set publication window"), eq(true), 
+        same(getContext()));
+    expectLastCall().once();
+    invalidationChannel.publish(eq(new LinkedHashSet<DocumentReference>(Arrays.asList(
+        docRef1))));
+    expectLastCall().once();
+    replay(xwiki, invalidationChannel);
+    Collection<DocumentReference> changed = pubService.setPublicationWindows(
+        Arrays.asList(docRef1, docRef2, docRef3), new Date(1000L), null);
+    verify(xwiki, invalidationChannel);
+    assertEquals(Arrays.asList(docRef1), new ArrayList<DocumentReference>(changed));
+    assertNull(getExecutionContext().getProperty(
+        PublicationChangeListener.BATCH_EXEC_CONTEXT_KEY));
+  }
+
+  @Test
+  public void testSetPublicationWindows_aborted() throws XWikiException {
+    DocumentReference docRef1 = new DocumentReference(getContext().getDatabase(), 
+        "Space", "Doc1");
+    DocumentReference docRef2 = new DocumentReference(getContext().getDatabase(), 
+        "Space", "Doc2");
+    XWikiDocument doc1 = createPubDoc(docRef1, new Date(2000L));
+    expect(xwiki.getDocument(eq(docRef1), same(getContext()))).andAnswer(
+        new BatchCheckingAnswer(doc1)).once();
+    expect(xwiki.getDocument(eq(docRef2), same(getContext()))).andThrow(
+        new IllegalStateException()).once();
+    xwiki.saveDocument(same(doc1), eq("set publication window"), eq(true), 
+        same(getContext()));
+    expectLastCall().once();
+    invalidationChannel.publish(eq(new LinkedHashSet<DocumentReference>(Arrays.asList(
+        docRef1))));
+    expectLastCall().once();
+    replay(xwiki, invalidationChannel);
+    try {
+      pubService.setPublicationWindows(Arrays.asList(docRef1, docRef2), new Date(1000L), 
+          null);
+      fail("expecting IllegalStateException");
+    } catch (IllegalStateException exc) {
+      // expected
+    }
+    verify(xwiki, invalidationChannel);
+    assertNull(getExecutionContext().getProperty(
+        PublicationChangeListener.BATCH_EXEC_CONTEXT_KEY));
+  }
+
+  @Test
+  public void testSetPublicationWindow_removesOtherObjects() throws XWikiException {
+    DocumentReference docRef = new DocumentReference(getContext().getDatabase(), "Space", 
+        "Doc");
+    DocumentReference pubClassRef = rightService.getPublicationClassReference(
+        getContext().getDatabase());
+    XWikiDocument doc = new XWikiDocument(docRef);
+    doc.setNew(false);
+    BaseObject obj1 = new BaseObject();
+    obj1.setXClassReference(pubClassRef);
+    obj1.setDateValue("publishDate", new Date(1000L));
+    doc.addXObject(obj1);
+    BaseObject obj2 = new BaseObject();
+    obj2.setXClassReference(pubClassRef);
+    doc.addXObject(obj2);
+    expect(xwiki.getDocument(eq(docRef), same(getContext()))).andReturn(doc).once();
+    xwiki.saveDocument(same(doc), eq("set publication window"), eq(true), 
+        same(getContext()));
+    expectLastCall().once();
+    replay(xwiki);
+    assertTrue(pubService.setPublicationWindow(docRef, new Date(1000L), null));
+    verify(xwiki);
+    List<BaseObject> pubObjs = new ArrayList<BaseObject>();
+    for (BaseObject obj : doc.getXObjects(pubClassRef)) {
+      if (obj != null) {
+        pubObjs.add(obj);
+      }
+    }
+    assertEquals(1, pubObjs.size());
+    assertSame(obj1, pubObjs.get(0));
+  }
+
+  private XWikiDocument createPubDoc(DocumentReference docRef, Date publishDate) {
+    XWikiDocument doc = new XWikiDocument(docRef);
+    doc.setNew(false);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(rightService.getPublicationClassReference(
+        getContext().getDatabase()));
+    obj.setDateValue("publishDate", publishDate);
+    doc.addXObject(obj);
+    return doc;
+  }
+
+  private ExecutionContext getExecutionContext() throws ComponentLookupException {
+    return getComponentManager().lookup(Execution.class).getContext();
+  }
+
+  /**
+   * Returns the given document, failing if it is not loaded within a batch.
+   */
+  private class BatchCheckingAnswer implements IAnswer<XWikiDocument> {
+
+    private final XWikiDocument doc;
+
+    BatchCheckingAnswer(XWikiDocument doc) {
+      this.doc = doc;
+    }
+
+    @Override
+    public XWikiDocument answer() throws Throwable {
+      assertEquals(Boolean.TRUE, getExecutionContext().getProperty(
+          PublicationChangeListener.BATCH_EXEC_CONTEXT_KEY));
+      return doc;
+    }
+  }
+}
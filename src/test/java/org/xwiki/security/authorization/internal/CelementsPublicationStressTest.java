@@ -0,0 +1,499 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.security.authorization.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.GroupSecurityReference;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.security.authorization.RuleState;
+import org.xwiki.security.authorization.SecurityAccessEntry;
+import org.xwiki.security.authorization.SecurityRule;
+import org.xwiki.security.authorization.SecurityRuleEntry;
+import org.xwiki.security.authorization.cache.SecurityCache;
+import org.xwiki.security.authorization.cache.SecurityCacheLoader;
+
+import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.celements.rights.TestComponents;
+import com.celements.rights.publication.PublicationClock;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Drives {@link AuthorizationManager#hasAccess} from many threads against in-memory
+ * stand-ins of the security cache, its loader and the document store, while a simulated
+ * clock moves the documents across their publication windows and an editor thread
+ * changes the windows. Fails if view right is granted outside of a publication window,
+ * beyond the tolerance given by the system property
+ * 'celements.rights.stress.toleranceMillis' (default 0), or if it is denied twice in a
+ * row while the window covers both checks. No user has edit right, thus all are subject
+ * to the publication windows.
+ */
+public class CelementsPublicationStressTest extends AbstractBridgedComponentTestCase {
+
+  static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+  static final long RUN_MILLIS = 500;
+  static final int DOC_COUNT = 20;
+  static final int USER_COUNT = 50;
+  static final long CLOCK_STEP = 1000;
+  static final long MAX_WINDOW = 100000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+      CelementsPublicationStressTest.class);
+
+  static final AtomicLong simulatedTime = new AtomicLong();
+
+  private final ConcurrentMap<DocumentReference, Window> windows = 
+      new ConcurrentHashMap<DocumentReference, Window>();
+  private final AtomicLong editSeq = new AtomicLong();
+  private final List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+  private final List<DocumentReference> userRefs = new ArrayList<DocumentReference>();
+  private long tolerance;
+  private final AtomicLong totalViolations = new AtomicLong();
+  private final AtomicLong totalOverDenials = new AtomicLong();
+  private InMemorySecurityCache securityCache;
+  private AuthorizationManager authManager;
+  private Execution execution;
+  private XWiki xwiki;
+
+  @Before
+  public void setUp_CelementsPublicationStressTest() throws Exception {
+    tolerance = Long.getLong("celements.rights.stress.toleranceMillis", 0L);
+    simulatedTime.set(0);
+    String wiki = getContext().getDatabase();
+    Random random = new Random(42);
+    for (int i = 0; i < DOC_COUNT; i++) {
+      DocumentReference docRef = new DocumentReference(wiki, "Content", "Doc" + i);
+      docRefs.add(docRef);
+      windows.put(docRef, Window.random(random, 0));
+    }
+    for (int i = 0; i < USER_COUNT; i++) {
+      userRefs.add(new DocumentReference(wiki, "XWiki", "User" + i));
+    }
+    xwiki = createMock(XWiki.class);
+    getContext().setWiki(xwiki);
+    expect(xwiki.getSpacePreference(eq("publishdate_active"), (String) anyObject(), 
+        eq("-1"), (XWikiContext) anyObject())).andReturn("1").anyTimes();
+    expect(xwiki.Param(eq("celements.rights.shadow.sampleRate"), eq("0"))).andReturn("0"
+        ).anyTimes();
+    expect(xwiki.Param(eq("celements.publication.invalidation.channel"), eq("inmemory"))
+        ).andReturn("inmemory").anyTimes();
+    expect(xwiki.getDocument((EntityReference) anyObject(), (XWikiContext) anyObject())
+        ).andAnswer(new IAnswer<XWikiDocument>() {
+          @Override
+          public XWikiDocument answer() throws Throwable {
+            return getDocument((EntityReference) getCurrentArguments()[0]);
+          }
+        }).anyTimes();
+    replay(xwiki);
+    execution = getComponentManager().lookup(Execution.class);
+    SecurityReferenceFactory factory = getComponentManager().lookup(
+        SecurityReferenceFactory.class);
+    securityCache = new InMemorySecurityCache();
+    TestComponents.register(getComponentManager(), SecurityCache.class, securityCache);
+    TestComponents.register(getComponentManager(), PublicationClock.class, 
+        new SimulatedClock());
+    TestComponents.register(getComponentManager(), SecurityCacheLoader.class, 
+        new InMemorySecurityCacheLoader(securityCache, factory, (AuthorizationSettler) 
+        getComponentManager().lookup(AuthorizationSettler.class, "celpublication")));
+    authManager = getComponentManager().lookup(AuthorizationManager.class);
+  }
+
+  @Test
+  public void testHasAccess_viewOnlyWithinWindow() throws Exception {
+    for (int threadCount : THREAD_COUNTS) {
+      run(threadCount);
+    }
+    assertEquals("view granted outside of publication window", 0, 
+        totalViolations.get());
+    assertEquals("view denied within publication window", 0, totalOverDenials.get());
+  }
+
+  void run(int threadCount) throws Exception {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong checks = new AtomicLong();
+    final AtomicLong violations = new AtomicLong();
+    final AtomicLong overDenials = new AtomicLong();
+    final CountDownLatch done = new CountDownLatch(threadCount + 2);
+    List<Thread> threads = new ArrayList<Thread>();
+    threads.add(new Thread(new ContextRunnable(running, done) {
+      @Override
+      void step(Random random) {
+        simulatedTime.addAndGet(CLOCK_STEP);
+        sleep(1);
+      }
+    }, "clock"));
+    threads.add(new Thread(new ContextRunnable(running, done) {
+      @Override
+      void step(Random random) {
+        editWindow(docRefs.get(random.nextInt(docRefs.size())), random);
+        sleep(5);
+      }
+    }, "editor"));
+    for (int i = 0; i < threadCount; i++) {
+      threads.add(new Thread(new ContextRunnable(running, done) {
+        @Override
+        void step(Random random) {
+          DocumentReference docRef = docRefs.get(random.nextInt(docRefs.size()));
+          DocumentReference userRef = userRefs.get(random.nextInt(userRefs.size()));
+          long seqBefore = editSeq.get();
+          Window window = windows.get(docRef);
+          long timeBefore = simulatedTime.get();
+          boolean granted = authManager.hasAccess(Right.VIEW, userRef, docRef);
+          long timeAfter = simulatedTime.get();
+          checks.incrementAndGet();
+          if (((seqBefore % 2) != 0) || (seqBefore != editSeq.get())) {
+            return;
+          }
+          if (granted && !window.overlaps(timeBefore - tolerance, timeAfter)) {
+            violations.incrementAndGet();
+          } else if (!granted && window.covers(timeBefore, timeAfter)) {
+            // a settlement started before the window may still be added to the cache
+            // concurrently, hence only a repeated denial counts
+            granted = authManager.hasAccess(Right.VIEW, userRef, docRef);
+            timeAfter = simulatedTime.get();
+            if (!granted && (seqBefore == editSeq.get()) 
+                && window.covers(timeBefore, timeAfter)) {
+              overDenials.incrementAndGet();
+            }
+          }
+        }
+      }, "reader-" + i));
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(RUN_MILLIS);
+    running.set(false);
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    LOGGER.info(String.format("threads=%d checks=%d checks/s=%.0f checks/s/thread=%.0f "
+        + "violations=%d overDenials=%d", threadCount, checks.get(), 
+        checks.get() / seconds, checks.get() / seconds / threadCount, violations.get(), 
+        overDenials.get()));
+    totalViolations.addAndGet(violations.get());
+    totalOverDenials.addAndGet(overDenials.get());
+  }
+
+  /**
+   * Emulates saving the publication object: like the rules invalidator of XWiki the
+   * document is evicted from the security cache while loaders are suspended.
+   */
+  void editWindow(DocumentReference docRef, Random random) {
+    securityCache.lock.writeLock().lock();
+    try {
+      editSeq.incrementAndGet();
+      windows.put(docRef, Window.random(random, simulatedTime.get()));
+      securityCache.remove(securityCache.factory.newEntityReference(docRef));
+      editSeq.incrementAndGet();
+    } finally {
+      securityCache.lock.writeLock().unlock();
+    }
+  }
+
+  XWikiDocument getDocument(EntityReference ref) {
+    DocumentReference docRef = new DocumentReference(ref);
+    XWikiDocument doc = new XWikiDocument(docRef);
+    Window window = windows.get(docRef);
+    if (window != null) {
+      BaseObject obj = new BaseObject();
+      obj.setXClassReference(new DocumentReference(docRef.getWikiReference().getName(), 
+          "Classes", "DocumentPublication"));
+      obj.setDateValue("publishDate", new Date(window.start));
+      obj.setDateValue("unpublishDate", new Date(window.end));
+      doc.addXObject(obj);
+    }
+    return doc;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private abstract class ContextRunnable implements Runnable {
+
+    private final AtomicBoolean running;
+    private final CountDownLatch done;
+
+    ContextRunnable(AtomicBoolean running, CountDownLatch done) {
+      this.running = running;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      ExecutionContext execContext = new ExecutionContext();
+      execContext.setProperty("xwikicontext", getContext().clone());
+      execution.setContext(execContext);
+      Random random = new Random(Thread.currentThread().getName().hashCode());
+      try {
+        while (running.get()) {
+          step(random);
+        }
+      } finally {
+        execution.removeContext();
+        done.countDown();
+      }
+    }
+
+    abstract void step(Random random);
+  }
+
+  static final class Window {
+
+    final long start;
+    final long end;
+
+    Window(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    static Window random(Random random, long now) {
+      long start = now + (long) (random.nextDouble() * MAX_WINDOW);
+      return new Window(start, start + CLOCK_STEP + (long) (random.nextDouble() 
+          * MAX_WINDOW));
+    }
+
+    /**
+     * @return true if published at any time within [from, to]
+     */
+    boolean overlaps(long from, long to) {
+      return (start < to) && (end > from);
+    }
+
+    /**
+     * @return true if published at all times within [from, to], the publish date itself
+     *         is excluded
+     */
+    boolean covers(long from, long to) {
+      return (start < from) && (end > to);
+    }
+  }
+
+  static class SimulatedClock implements PublicationClock {
+
+    @Override
+    public Date getNow() {
+      return new Date(simulatedTime.get());
+    }
+
+    @Override
+    public long getGranularity() {
+      return 1;
+    }
+  }
+
+  static class InMemorySecurityCache implements SecurityCache {
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    SecurityReferenceFactory factory;
+    private final Map<SecurityReference, SecurityRuleEntry> ruleEntries = 
+        new ConcurrentHashMap<SecurityReference, SecurityRuleEntry>();
+    private final Map<SecurityReference, Map<UserSecurityReference, SecurityAccessEntry>>
+        accessEntries = new ConcurrentHashMap<SecurityReference, 
+        Map<UserSecurityReference, SecurityAccessEntry>>();
+
+    @Override
+    public SecurityRuleEntry get(SecurityReference entity) {
+      return ruleEntries.get(entity);
+    }
+
+    @Override
+    public SecurityAccessEntry get(UserSecurityReference user, SecurityReference entity) {
+      Map<UserSecurityReference, SecurityAccessEntry> entries = accessEntries.get(entity);
+      return (entries != null) ? entries.get(user) : null;
+    }
+
+    @Override
+    public void add(SecurityRuleEntry entry) {
+      ruleEntries.put(entry.getReference(), entry);
+    }
+
+    @Override
+    public void add(SecurityAccessEntry entry) {
+      Map<UserSecurityReference, SecurityAccessEntry> entries = accessEntries.get(
+          entry.getReference());
+      if (entries == null) {
+        accessEntries.put(entry.getReference(), 
+            new ConcurrentHashMap<UserSecurityReference, SecurityAccessEntry>());
+        entries = accessEntries.get(entry.getReference());
+      }
+      entries.put(entry.getUserReference(), entry);
+    }
+
+    @Override
+    public void remove(UserSecurityReference user, SecurityReference entity) {
+      Map<UserSecurityReference, SecurityAccessEntry> entries = accessEntries.get(entity);
+      if (entries != null) {
+        entries.remove(user);
+      }
+    }
+
+    @Override
+    public void remove(SecurityReference entity) {
+      removeDescendants(ruleEntries.keySet().iterator(), entity);
+      removeDescendants(accessEntries.keySet().iterator(), entity);
+    }
+
+    private void removeDescendants(Iterator<SecurityReference> iter, 
+        SecurityReference entity) {
+      while (iter.hasNext()) {
+        for (SecurityReference ref = iter.next(); ref != null; 
+            ref = ref.getParentSecurityReference()) {
+          if (ref.equals(entity)) {
+            iter.remove();
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  static class InMemorySecurityCacheLoader implements SecurityCacheLoader {
+
+    private final InMemorySecurityCache securityCache;
+    private final SecurityReferenceFactory factory;
+    private final AuthorizationSettler settler;
+
+    InMemorySecurityCacheLoader(InMemorySecurityCache securityCache, 
+        SecurityReferenceFactory factory, AuthorizationSettler settler) {
+      this.securityCache = securityCache;
+      this.factory = factory;
+      this.settler = settler;
+      securityCache.factory = factory;
+    }
+
+    @Override
+    public SecurityAccessEntry load(UserSecurityReference user, SecurityReference entity) {
+      securityCache.lock.readLock().lock();
+      try {
+        Deque<SecurityRuleEntry> ruleEntries = new ArrayDeque<SecurityRuleEntry>();
+        for (SecurityReference ref = entity; ref != null; 
+            ref = ref.getParentSecurityReference()) {
+          SecurityRuleEntry entry = securityCache.get(ref);
+          if (entry == null) {
+            entry = newRuleEntry(ref);
+            securityCache.add(entry);
+          }
+          ruleEntries.add(entry);
+        }
+        Collection<GroupSecurityReference> groups = Collections.singleton(
+            factory.newGroupReference(new DocumentReference(
+            entity.getWikiReference().getName(), "XWiki", "XWikiAllGroup")));
+        SecurityAccessEntry accessEntry = settler.settle(user, groups, ruleEntries);
+        securityCache.add(accessEntry);
+        return accessEntry;
+      } finally {
+        securityCache.lock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Only the members of XWiki.Editors have edit right, thus the publication dates
+     * apply to all other users.
+     */
+    private SecurityRuleEntry newRuleEntry(final SecurityReference ref) {
+      final List<SecurityRule> rules = new ArrayList<SecurityRule>();
+      if (ref.getType() == EntityType.WIKI) {
+        final GroupSecurityReference editors = factory.newGroupReference(
+            new DocumentReference(ref.getName(), "XWiki", "Editors"));
+        rules.add(new SecurityRule() {
+          @Override
+          public boolean match(Right right) {
+            return right == Right.EDIT;
+          }
+
+          @Override
+          public boolean match(GroupSecurityReference group) {
+            return editors.equals(group);
+          }
+
+          @Override
+          public boolean match(UserSecurityReference user) {
+            return false;
+          }
+
+          @Override
+          public RuleState getState() {
+            return RuleState.ALLOW;
+          }
+        });
+      }
+      return new SecurityRuleEntry() {
+        @Override
+        public SecurityReference getReference() {
+          return ref;
+        }
+
+        @Override
+        public Collection<SecurityRule> getRules() {
+          return rules;
+        }
+
+        @Override
+        public boolean isEmpty() {
+          return rules.isEmpty();
+        }
+      };
+    }
+  }
+}
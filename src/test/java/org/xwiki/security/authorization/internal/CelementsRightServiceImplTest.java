@@ -22,19 +22,35 @@ package org.xwiki.security.authorization.internal;
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.GroupSecurityReference;
 import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.AuthorizationSettler;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.security.authorization.RuleState;
+import org.xwiki.security.authorization.SecurityAccessEntry;
+import org.xwiki.security.authorization.SecurityRule;
+import org.xwiki.security.authorization.SecurityRuleEntry;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl.PubUnpub;
+import org.xwiki.security.authorization.internal.CelementsRightServiceImpl.SettledEntryState;
 
 import com.celements.common.test.AbstractBridgedComponentTestCase;
+import com.celements.rights.publication.PublicationClock;
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -50,6 +66,17 @@ public class CelementsRightServiceImplTest extends AbstractBridgedComponentTestC
   @Before
   public void setUp_CelementsRightServiceImplTest() throws Exception {
     rightService = new CelementsRightServiceImpl();
+    rightService.clock = new PublicationClock() {
+      @Override
+      public Date getNow() {
+        return new Date();
+      }
+
+      @Override
+      public long getGranularity() {
+        return 1;
+      }
+    };
     xwiki = createMock(XWiki.class);
     getContext().setWiki(xwiki);
   }
@@ -297,6 +324,217 @@ public class CelementsRightServiceImplTest extends AbstractBridgedComponentTestC
     assertTrue(rightService.isPublished(objs));
   }
 
+  @Test
+  public void testIsPublished_recurrence() {
+    BaseObject obj = new BaseObject();
+    obj.setStringValue("recurrence", "MON-FRI 08:00-18:00");
+    List<BaseObject> objs = new ArrayList<BaseObject>();
+    objs.add(obj);
+    // january 7th 2013 is a monday
+    assertTrue(rightService.isPublished(objs, new GregorianCalendar(2013, 
+        Calendar.JANUARY, 7, 10, 0).getTime()));
+    assertFalse(rightService.isPublished(objs, new GregorianCalendar(2013, 
+        Calendar.JANUARY, 12, 10, 0).getTime()));
+  }
+
+  @Test
+  public void testGetNextTransition() {
+    Date now = new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 0).getTime();
+    BaseObject obj1 = new BaseObject();
+    obj1.setDateValue("publishDate", new GregorianCalendar(2013, Calendar.JANUARY, 1, 0, 
+        0).getTime());
+    obj1.setDateValue("unpublishDate", new GregorianCalendar(2013, Calendar.JANUARY, 9, 
+        0, 0).getTime());
+    BaseObject obj2 = new BaseObject();
+    obj2.setStringValue("recurrence", "MON-FRI 08:00-18:00");
+    List<BaseObject> objs = new ArrayList<BaseObject>();
+    objs.add(obj1);
+    assertEquals(new GregorianCalendar(2013, Calendar.JANUARY, 9, 0, 0).getTime(), 
+        rightService.getNextTransition(objs, now));
+    objs.add(obj2);
+    assertEquals(new GregorianCalendar(2013, Calendar.JANUARY, 7, 18, 0).getTime(), 
+        rightService.getNextTransition(objs, now));
+  }
+
+  @Test
+  public void testGetNextTransition_nowOnBucketBoundary() {
+    rightService.clock = new PublicationClock() {
+      @Override
+      public Date getNow() {
+        return new Date();
+      }
+
+      @Override
+      public long getGranularity() {
+        return 60000;
+      }
+    };
+    Date now = new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 0).getTime();
+    Date nextBucket = new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 1).getTime();
+    Date unpubDate = new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 5, 30).getTime();
+    BaseObject obj = new BaseObject();
+    obj.setDateValue("publishDate", now);
+    obj.setDateValue("unpublishDate", unpubDate);
+    List<BaseObject> objs = Arrays.asList(obj);
+    assertFalse(rightService.isPublished(objs, now));
+    Date next = rightService.getNextTransition(objs, now);
+    assertEquals(new Date(now.getTime() + 1), next);
+    assertEquals(nextBucket.getTime(), rightService.getValidUntil(next));
+    assertTrue(rightService.isPublished(objs, nextBucket));
+    next = rightService.getNextTransition(objs, nextBucket);
+    assertEquals(unpubDate, next);
+    assertEquals(new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 6).getTimeInMillis(),
+        rightService.getValidUntil(next));
+    assertNull(rightService.getNextTransition(objs, next));
+    assertEquals(Long.MAX_VALUE, rightService.getValidUntil(null));
+  }
+
+  @Test
+  public void testGetNextTransition_none() {
+    assertNull(rightService.getNextTransition(null, new Date()));
+    assertNull(rightService.getNextTransition(Arrays.asList(new BaseObject()), 
+        new Date()));
+  }
+
+  @Test
+  public void testHasUserSpecificRule() {
+    UserSecurityReference user = createMock(UserSecurityReference.class);
+    SecurityRuleEntry entry = createMock(SecurityRuleEntry.class);
+    SecurityRule groupRule = createMock(SecurityRule.class);
+    SecurityRule userRule = createMock(SecurityRule.class);
+    Deque<SecurityRuleEntry> entries = new ArrayDeque<SecurityRuleEntry>();
+    entries.add(entry);
+    expect(entry.getRules()).andReturn(Arrays.asList(groupRule)).once();
+    expect(entry.getRules()).andReturn(Arrays.asList(groupRule, userRule)).once();
+    expect(groupRule.match(same(user))).andReturn(false).times(2);
+    expect(userRule.match(same(user))).andReturn(true).once();
+    replay(user, entry, groupRule, userRule);
+    assertFalse(rightService.hasUserSpecificRule(user, entries));
+    assertTrue(rightService.hasUserSpecificRule(user, entries));
+    verify(user, entry, groupRule, userRule);
+  }
+
+  @Test
+  public void testSettle_sharedAccessNotAffectedByOverlay() throws Exception {
+    CelementsRightServiceImpl settler = (CelementsRightServiceImpl) getComponentManager(
+        ).lookup(AuthorizationSettler.class, "celpublication");
+    settler.clock = rightService.clock;
+    AuthorizationSettler defaultImpl = createMock(AuthorizationSettler.class);
+    settler.defaultImpl = defaultImpl;
+    SecurityReferenceFactory factory = getComponentManager().lookup(
+        SecurityReferenceFactory.class);
+    String wiki = getContext().getDatabase();
+    DocumentReference docRef = new DocumentReference(wiki, "Content", "Doc");
+    SecurityReference docSecRef = factory.newEntityReference(docRef);
+    UserSecurityReference user1 = factory.newUserReference(new DocumentReference(wiki, 
+        "XWiki", "User1"));
+    UserSecurityReference user2 = factory.newUserReference(new DocumentReference(wiki, 
+        "XWiki", "User2"));
+    Collection<GroupSecurityReference> groups = Arrays.asList(factory.newGroupReference(
+        new DocumentReference(wiki, "XWiki", "XWikiAllGroup")));
+    Deque<SecurityRuleEntry> entries = newRuleEntries(docSecRef);
+    Deque<SecurityRuleEntry> changedEntries = newRuleEntries(docSecRef);
+    XWikiSecurityAccess access = new XWikiSecurityAccess();
+    access.allow(Right.VIEW);
+    access.deny(Right.EDIT);
+    expect(defaultImpl.settle(same(user1), same(groups), same(entries))).andReturn(
+        new InternalSecurityAccessEntry(user1, docSecRef, access)).once();
+    expect(defaultImpl.settle(same(user2), same(groups), same(changedEntries))).andReturn(
+        new InternalSecurityAccessEntry(user2, docSecRef, access.clone())).once();
+    expect(xwiki.getSpacePreference(eq("publishdate_active"), (String) anyObject(), 
+        eq("-1"), same(getContext()))).andReturn("1").anyTimes();
+    XWikiDocument doc = new XWikiDocument(docRef);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(settler.getPublicationClassReference(wiki));
+    obj.setDateValue("publishDate", new Date(System.currentTimeMillis() + 100000));
+    doc.addXObject(obj);
+    expect(xwiki.getDocument(same(docSecRef), same(getContext()))).andReturn(doc
+        ).anyTimes();
+    replay(defaultImpl, xwiki);
+    SecurityAccessEntry result1 = settler.settle(user1, groups, entries);
+    assertEquals(RuleState.DENY, result1.getAccess().get(Right.VIEW));
+    SecurityAccessEntry result2 = settler.settle(user2, groups, entries);
+    assertSame(user2, result2.getUserReference());
+    assertNotSame(result1.getAccess(), result2.getAccess());
+    assertEquals(RuleState.DENY, result2.getAccess().get(Right.VIEW));
+    getContext().put("overridePubCheck", PubUnpub.UNPUBLISHED);
+    SecurityAccessEntry result3 = settler.settle(user1, groups, entries);
+    getContext().remove("overridePubCheck");
+    assertNotSame(result1.getAccess(), result3.getAccess());
+    assertEquals("overlay leaked into the shared access", RuleState.ALLOW, 
+        result3.getAccess().get(Right.VIEW));
+    settler.settle(user2, groups, changedEntries);
+    verify(defaultImpl, xwiki);
+  }
+
+  @Test
+  public void testSettle_publishDateOnBucketBoundary() throws Exception {
+    CelementsRightServiceImpl settler = (CelementsRightServiceImpl) getComponentManager(
+        ).lookup(AuthorizationSettler.class, "celpublication");
+    SettableClock clock = new SettableClock(1000);
+    settler.clock = clock;
+    AuthorizationSettler defaultImpl = createMock(AuthorizationSettler.class);
+    settler.defaultImpl = defaultImpl;
+    SecurityReferenceFactory factory = getComponentManager().lookup(
+        SecurityReferenceFactory.class);
+    String wiki = getContext().getDatabase();
+    DocumentReference docRef = new DocumentReference(wiki, "Content", "Doc");
+    SecurityReference docSecRef = factory.newEntityReference(docRef);
+    UserSecurityReference user = factory.newUserReference(new DocumentReference(wiki, 
+        "XWiki", "User"));
+    Collection<GroupSecurityReference> groups = Arrays.asList(factory.newGroupReference(
+        new DocumentReference(wiki, "XWiki", "XWikiAllGroup")));
+    Deque<SecurityRuleEntry> entries = newRuleEntries(docSecRef);
+    XWikiSecurityAccess access = new XWikiSecurityAccess();
+    access.allow(Right.VIEW);
+    access.deny(Right.EDIT);
+    expect(defaultImpl.settle(same(user), same(groups), same(entries))).andReturn(
+        new InternalSecurityAccessEntry(user, docSecRef, access)).once();
+    expect(xwiki.getSpacePreference(eq("publishdate_active"), (String) anyObject(), 
+        eq("-1"), same(getContext()))).andReturn("1").anyTimes();
+    long pubMillis = new GregorianCalendar(2013, Calendar.JANUARY, 7, 10, 0
+        ).getTimeInMillis();
+    XWikiDocument doc = new XWikiDocument(docRef);
+    BaseObject obj = new BaseObject();
+    obj.setXClassReference(settler.getPublicationClassReference(wiki));
+    obj.setDateValue("publishDate", new Date(pubMillis));
+    doc.addXObject(obj);
+    expect(xwiki.getDocument(same(docSecRef), same(getContext()))).andReturn(doc
+        ).anyTimes();
+    replay(defaultImpl, xwiki);
+    clock.now = pubMillis - 1000;
+    SecurityAccessEntry result = settler.settle(user, groups, entries);
+    assertEquals(RuleState.DENY, result.getAccess().get(Right.VIEW));
+    clock.now = pubMillis;
+    assertEquals(SettledEntryState.VALID, settler.checkSettledEntry(user, docSecRef, 
+        entries.getFirst(), result));
+    result = settler.settle(user, groups, entries);
+    assertEquals(RuleState.DENY, result.getAccess().get(Right.VIEW));
+    clock.now = pubMillis + 1000;
+    assertEquals(SettledEntryState.TRANSITIONED, settler.checkSettledEntry(user, 
+        docSecRef, entries.getFirst(), result));
+    result = settler.settle(user, groups, entries);
+    assertEquals(RuleState.ALLOW, result.getAccess().get(Right.VIEW));
+    assertEquals(SettledEntryState.VALID, settler.checkSettledEntry(user, docSecRef, 
+        entries.getFirst(), result));
+    verify(defaultImpl, xwiki);
+  }
+
+  private Deque<SecurityRuleEntry> newRuleEntries(SecurityReference docSecRef) {
+    SecurityRuleEntry docEntry = createMock(SecurityRuleEntry.class);
+    expect(docEntry.getReference()).andReturn(docSecRef).anyTimes();
+    expect(docEntry.getRules()).andReturn(Collections.<SecurityRule>emptyList()
+        ).anyTimes();
+    SecurityRuleEntry wikiEntry = createMock(SecurityRuleEntry.class);
+    expect(wikiEntry.getRules()).andReturn(Collections.<SecurityRule>emptyList()
+        ).anyTimes();
+    replay(docEntry, wikiEntry);
+    Deque<SecurityRuleEntry> entries = new ArrayDeque<SecurityRuleEntry>();
+    entries.add(docEntry);
+    entries.add(wikiEntry);
+    return entries;
+  }
+
 /*  @Test
   public void testIsPublishActive_docNull() {
     expect(xwiki.getSpacePreference(eq("publishdate_active"), same((String)null), 
@@ -465,4 +703,24 @@ public class CelementsRightServiceImplTest extends AbstractBridgedComponentTestC
     getContext().put("overridePubCheck", CelementsRightServiceImpl.PubUnpub.PUBLISHED);
     assertFalse(rightService.isUnpubOverride());
   }*/
+
+  private static class SettableClock implements PublicationClock {
+
+    private final long granularity;
+    long now;
+
+    SettableClock(long granularity) {
+      this.granularity = granularity;
+    }
+
+    @Override
+    public Date getNow() {
+      return new Date(now);
+    }
+
+    @Override
+    public long getGranularity() {
+      return granularity;
+    }
+  }
 }